@@ -24,35 +24,51 @@ import io.netty.channel.ChannelHandlerContext;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTP10WireFormat.readIdentity;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTP10WireFormat.writeGreeting;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP10;
 
 class ZMTP10Protocol implements ZMTPProtocol {
 
   @Override
   public ZMTPHandshaker handshaker(final ZMTPConfig config) {
-    return new Handshaker(config.localIdentity());
+    return new Handshaker(config.greeting());
+  }
+
+  @Override
+  public ZMTPGreeting greeting(final ZMTPConfig config) {
+    return createGreeting(config.localIdentity());
+  }
+
+  private static ZMTPGreeting createGreeting(final ByteBuffer localIdentity) {
+    final ByteBuf greeting = Unpooled.buffer();
+    writeGreeting(greeting, localIdentity);
+    return new ZMTPGreeting(greeting, null);
   }
 
   static class Handshaker implements ZMTPHandshaker {
 
-    private final ByteBuffer localIdentity;
+    private final ZMTPGreeting greeting;
 
     Handshaker(final ByteBuffer localIdentity) {
-      this.localIdentity = localIdentity;
+      this(createGreeting(checkNotNull(localIdentity, "localIdentity")));
+    }
+
+    Handshaker(final ZMTPGreeting greeting) {
+      this.greeting = checkNotNull(greeting, "greeting");
     }
 
     @Override
     public ByteBuf greeting() {
-      final ByteBuf out = Unpooled.buffer();
-      writeGreeting(out, localIdentity);
-      return out;
+      return greeting.greeting();
     }
 
     @Override
     public ZMTPHandshake handshake(final ByteBuf in, final ChannelHandlerContext ctx)
         throws ZMTPException {
       final ByteBuffer remoteIdentity = readIdentity(in);
-      assert remoteIdentity != null;
+      if (remoteIdentity == null) {
+        return null;
+      }
       return ZMTPHandshake.of(ZMTP10, remoteIdentity);
     }
   }
@@ -27,16 +27,25 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
 
   /**
    * Read the remote identity octets from a ZMTP/1.0 greeting.
+   *
+   * @return The identity, or null if there are not enough readable bytes to read the entire
+   * greeting, in which case nothing is consumed.
    */
   static ByteBuffer readIdentity(final ByteBuf buffer) throws ZMTPParsingException {
+    final int mark = buffer.readerIndex();
     final long length = readLength(buffer);
     if (length == -1) {
+      buffer.readerIndex(mark);
       return null;
     }
     final long identityLength = length - 1;
     if (identityLength < 0 || identityLength > 255) {
       throw new ZMTPParsingException("Bad remote identity length: " + length);
     }
+    if (buffer.readableBytes() < length) {
+      buffer.readerIndex(mark);
+      return null;
+    }
 
     // skip the flags byte
     buffer.skipBytes(1);
@@ -49,7 +58,7 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
   /**
    * Read a ZMTP/1.0 frame length.
    */
-  static long readLength(final ByteBuf in) {
+  static long readLength(final ByteBuf in) throws ZMTPParsingException {
     if (in.readableBytes() < 1) {
       return -1;
     }
@@ -59,6 +68,9 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
         return -1;
       }
       size = in.readLong();
+      if (size < 0) {
+        throw new ZMTPParsingException("Received frame with negative length: " + size);
+      }
     }
 
     return size;
@@ -119,7 +131,7 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
   static class ZMTP10Header implements Header {
 
     int maxLength;
-    int length;
+    long length;
     boolean more;
 
     @Override
@@ -152,7 +164,7 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
         return false;
       }
 
-      length = (int) len - 1;
+      length = len - 1;
       more = (in.readByte() & MORE_FLAG) == MORE_FLAG;
 
       return true;
@@ -36,72 +36,122 @@ class ZMTP20Protocol implements ZMTPProtocol {
 
   @Override
   public ZMTPHandshaker handshaker(final ZMTPConfig config) {
-    return new Handshaker(config.socketType(), config.localIdentity(), config.interop());
+    return new Handshaker(config.localIdentity(), config.interop(), config.greeting());
+  }
+
+  @Override
+  public ZMTPGreeting greeting(final ZMTPConfig config) {
+    return createGreeting(config.socketType(), config.localIdentity(), config.interop());
+  }
+
+  private static ZMTPGreeting createGreeting(final ZMTPSocketType socketType,
+                                             final ByteBuffer identity,
+                                             final boolean interop) {
+    checkNotNull(socketType, "ZMTP/2.0 requires a socket type");
+    checkNotNull(identity, "identity");
+    final ByteBuf greeting = Unpooled.buffer();
+    if (interop) {
+      ZMTP20WireFormat.writeCompatSignature(greeting, identity);
+    } else {
+      ZMTP20WireFormat.writeGreeting(greeting, socketType, identity);
+    }
+    if (!interop) {
+      return new ZMTPGreeting(greeting, null);
+    }
+    // The body is only sent separately after the compatibility signature
+    final ByteBuf body = Unpooled.buffer();
+    writeGreetingBody(body, socketType, identity);
+    return new ZMTPGreeting(greeting, body);
   }
 
   static class Handshaker implements ZMTPHandshaker {
 
-    private final ZMTPSocketType socketType;
     private final ByteBuffer identity;
-    private final boolean interop;
+    private final ZMTPGreeting greeting;
 
-    private boolean splitHandshake;
+    private State state;
 
     Handshaker(final ZMTPSocketType socketType, final ByteBuffer identity, final boolean interop) {
-      this.socketType = checkNotNull(socketType, "ZMTP/2.0 requires a socket type");
+      this(identity, interop, createGreeting(socketType, identity, interop));
+    }
+
+    Handshaker(final ByteBuffer identity, final boolean interop, final ZMTPGreeting greeting) {
       this.identity = checkNotNull(identity, "identity");
-      this.interop = interop;
+      this.greeting = checkNotNull(greeting, "greeting");
+      this.state = interop ? State.SIGNATURE : State.GREETING;
     }
 
     @Override
     public ByteBuf greeting() {
-      final ByteBuf out = Unpooled.buffer();
-      if (interop) {
-        ZMTP20WireFormat.writeCompatSignature(out, identity);
-      } else {
-        ZMTP20WireFormat.writeGreeting(out, socketType, identity);
-      }
-      return out;
+      return greeting.greeting();
     }
 
     @Override
     public ZMTPHandshake handshake(final ByteBuf in, final ChannelHandlerContext ctx)
         throws ZMTPException {
-      if (splitHandshake) {
-        final Greeting remoteGreeting = readGreetingBody(in);
-        if (remoteGreeting.revision() < 1) {
-          throw new ZMTPException("Bad ZMTP revision: " + remoteGreeting.revision());
+      switch (state) {
+        case GREETING: {
+          final Greeting remoteGreeting = readGreeting(in);
+          if (remoteGreeting == null) {
+            return null;
+          }
+          return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
         }
-        return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
-      }
-
-      if (interop) {
-        final int mark = in.readerIndex();
-        final ZMTPVersion version = detectProtocolVersion(in);
-        switch (version) {
-          case ZMTP10:
-            in.readerIndex(mark);
-            // when a ZMTP/1.0 peer is detected, just send the identity bytes. Together
-            // with the compatibility signature it makes for a valid ZMTP/1.0 greeting.
-            ctx.writeAndFlush(Unpooled.wrappedBuffer(identity));
-            final ByteBuffer remoteIdentity = ZMTP10WireFormat.readIdentity(in);
-            assert remoteIdentity != null;
-            return ZMTPHandshake.of(ZMTP10, remoteIdentity);
-          case ZMTP20:
-            splitHandshake = true;
-            final ByteBuf out = Unpooled.buffer();
-            writeGreetingBody(out, socketType, identity);
-            ctx.writeAndFlush(out);
+        case SIGNATURE: {
+          final int mark = in.readerIndex();
+          final ZMTPVersion version = detectProtocolVersion(in);
+          if (version == null) {
             return null;
-          default:
-            throw new ZMTPException("Unknown ZMTP version: " + version);
+          }
+          switch (version) {
+            case ZMTP10:
+              in.readerIndex(mark);
+              // when a ZMTP/1.0 peer is detected, just send the identity bytes. Together
+              // with the compatibility signature it makes for a valid ZMTP/1.0 greeting.
+              ctx.writeAndFlush(Unpooled.wrappedBuffer(identity));
+              state = State.IDENTITY;
+              return handshake(in, ctx);
+            case ZMTP20:
+              ctx.writeAndFlush(greeting.body());
+              state = State.BODY;
+              return null;
+            default:
+              throw new ZMTPException("Unknown ZMTP version: " + version);
+          }
         }
-      } else {
-        final Greeting remoteGreeting = readGreeting(in);
-        return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
+        case BODY: {
+          final Greeting remoteGreeting = readGreetingBody(in);
+          if (remoteGreeting == null) {
+            return null;
+          }
+          if (remoteGreeting.revision() < 1) {
+            throw new ZMTPException("Bad ZMTP revision: " + remoteGreeting.revision());
+          }
+          return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
+        }
+        case IDENTITY: {
+          final ByteBuffer remoteIdentity = ZMTP10WireFormat.readIdentity(in);
+          if (remoteIdentity == null) {
+            return null;
+          }
+          return ZMTPHandshake.of(ZMTP10, remoteIdentity);
+        }
+        default:
+          throw new IllegalStateException("Unknown handshake state: " + state);
       }
     }
 
+    /**
+     * The handshake states. A plain ZMTP/2.0 handshake reads the complete {@link #GREETING} in one
+     * go. An interop handshake first reads the {@link #SIGNATURE} to detect the peer version and
+     * then either the ZMTP/2.0 greeting {@link #BODY} or the ZMTP/1.0 {@link #IDENTITY}.
+     */
+    private enum State {
+      GREETING,
+      SIGNATURE,
+      BODY,
+      IDENTITY
+    }
   }
 
   @Override
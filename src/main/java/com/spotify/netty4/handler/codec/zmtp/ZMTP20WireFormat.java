@@ -32,6 +32,9 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
   static final byte LONG_FLAG = 0x02;
   static final byte MORE_FLAG = 0x1;
 
+  static final int SIGNATURE_LENGTH = 10;
+  static final int GREETING_BODY_HEADER_LENGTH = 4;
+
   @Override
   public int frameLength(final int content) {
     if (content < 256) {
@@ -50,30 +53,47 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
    * Read a ZMTP/2.0 greeting.
    *
    * @param in The buffer to read the greeting from.
-   * @return A {@link com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.Greeting}.
-   * @throws ZMTPParsingException      If the greeting is malformed.
-   * @throws IndexOutOfBoundsException If there is not enough readable bytes to read an entire
-   *                                   greeting.
+   * @return A {@link com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.Greeting}, or null if
+   * there are not enough readable bytes to read the entire greeting, in which case nothing is
+   * consumed.
+   * @throws ZMTPParsingException If the greeting is malformed.
    */
-  static Greeting readGreeting(ByteBuf in)
-      throws ZMTPParsingException {
-    if (in.readByte() != (byte) 0xff) {
+  static Greeting readGreeting(final ByteBuf in) throws ZMTPParsingException {
+    if (!in.isReadable()) {
+      return null;
+    }
+    final int mark = in.readerIndex();
+    if (in.getByte(mark) != (byte) 0xff) {
       throw new ZMTPParsingException("Illegal ZMTP/2.0 greeting, first octet not 0xff");
     }
-    in.skipBytes(9);
-    return readGreetingBody(in);
+    if (in.readableBytes() < SIGNATURE_LENGTH + GREETING_BODY_HEADER_LENGTH) {
+      return null;
+    }
+    in.skipBytes(SIGNATURE_LENGTH);
+    final Greeting greeting = readGreetingBody(in);
+    if (greeting == null) {
+      in.readerIndex(mark);
+    }
+    return greeting;
   }
 
   /**
    * Read a ZMTP/2.0 greeting body.
    *
    * @param in The buffer to read the greeting from.
-   * @return A {@link com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.Greeting}.
-   * @throws ZMTPParsingException      If the greeting is malformed.
-   * @throws IndexOutOfBoundsException If there is not enough readable bytes to read an entire
-   *                                   greeting.
+   * @return A {@link com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.Greeting}, or null if
+   * there are not enough readable bytes to read the entire greeting body, in which case nothing is
+   * consumed.
+   * @throws ZMTPParsingException If the greeting is malformed.
    */
   static Greeting readGreetingBody(final ByteBuf in) throws ZMTPParsingException {
+    if (in.readableBytes() < GREETING_BODY_HEADER_LENGTH) {
+      return null;
+    }
+    final int len = in.getUnsignedByte(in.readerIndex() + GREETING_BODY_HEADER_LENGTH - 1);
+    if (in.readableBytes() < GREETING_BODY_HEADER_LENGTH + len) {
+      return null;
+    }
     final int revision = in.readByte();
     final ZMTPSocketType socketType = readSocketType(in);
     final int flags = in.readByte();
@@ -81,7 +101,7 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
       throw new ZMTPParsingException(format(
           "Malformed ZMTP/2.0 greeting. Flags (byte 13) expected to be 0x00, was 0x%02x", flags));
     }
-    final int len = in.readByte();
+    in.skipBytes(1);
     final byte[] identity = new byte[len];
     in.readBytes(identity);
     return new Greeting(revision, socketType, ByteBuffer.wrap(identity));
@@ -178,14 +198,21 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
    * ZMTP handshake.
    *
    * @param in the buffer of data to determine version from.
-   * @return The detected {@link ZMTPVersion}.
-   * @throws IndexOutOfBoundsException if there is not enough data available in buffer.
+   * @return The detected {@link ZMTPVersion}, or null if there is not enough data available in the
+   * buffer, in which case nothing is consumed.
    */
   static ZMTPVersion detectProtocolVersion(final ByteBuf in) {
-    if (in.readByte() != (byte) 0xff) {
+    if (!in.isReadable()) {
+      return null;
+    }
+    if (in.getByte(in.readerIndex()) != (byte) 0xff) {
+      in.skipBytes(1);
       return ZMTPVersion.ZMTP10;
     }
-    in.skipBytes(8);
+    if (in.readableBytes() < SIGNATURE_LENGTH) {
+      return null;
+    }
+    in.skipBytes(9);
     if ((in.readByte() & 0x01) == 0) {
       return ZMTPVersion.ZMTP10;
     }
@@ -250,7 +277,7 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
   static class ZMTP20Header implements Header {
 
     int maxLength;
-    int length;
+    long length;
     boolean more;
 
     @Override
@@ -273,7 +300,7 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
     }
 
     @Override
-    public boolean read(final ByteBuf in) {
+    public boolean read(final ByteBuf in) throws ZMTPParsingException {
       if (in.readableBytes() < 2) {
         return false;
       }
@@ -286,8 +313,10 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
       if (in.readableBytes() < 8) {
         return false;
       }
-      final long len = in.readLong();
-      length = (int) len;
+      length = in.readLong();
+      if (length < 0) {
+        throw new ZMTPParsingException("Received frame with negative length: " + length);
+      }
       return true;
     }
 
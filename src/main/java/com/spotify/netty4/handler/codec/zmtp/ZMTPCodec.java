@@ -22,11 +22,12 @@ import java.nio.channels.ClosedChannelException;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.CombinedChannelDuplexHandler;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
 
@@ -35,7 +36,7 @@ import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
  *
  * Note: A single codec instance is not {@link Sharable} among multiple {@link Channel} instances.
  */
-public class ZMTPCodec extends ReplayingDecoder<Void> {
+public class ZMTPCodec extends ByteToMessageDecoder {
 
   private final ZMTPSession session;
   private final ZMTPHandshaker handshaker;
@@ -78,6 +79,7 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
     if (session.handshakeFuture().isDone()) {
       assert !session.handshakeFuture().isSuccess();
       in.skipBytes(in.readableBytes());
+      return;
     }
 
     // Shake hands
@@ -98,16 +100,17 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
     session.handshakeSuccess(handshake);
 
     // Replace this handler with the framing encoder and decoder
-    if (actualReadableBytes() > 0) {
-      out.add(in.readBytes(actualReadableBytes()));
+    final int remaining = in.readableBytes();
+    if (remaining > 0) {
+      final ByteBufAllocator alloc = config.allocator() != null ? config.allocator() : ctx.alloc();
+      out.add(alloc.buffer(remaining).writeBytes(in, remaining));
     }
     final ZMTPDecoder decoder = config.decoder().decoder(session);
     final ZMTPEncoder encoder = config.encoder().encoder(session);
-    final ZMTPWireFormat wireFormat = ZMTPWireFormats.wireFormat(session.negotiatedVersion());
     final ChannelHandler handler =
         new CombinedChannelDuplexHandler<ZMTPFramingDecoder, ZMTPFramingEncoder>(
-            new ZMTPFramingDecoder(wireFormat, decoder),
-            new ZMTPFramingEncoder(wireFormat, encoder));
+            new ZMTPFramingDecoder(session, decoder),
+            new ZMTPFramingEncoder(session, encoder));
     ctx.pipeline().replace(this, ctx.name(), handler);
 
     // Tell the user that the handshake is complete
@@ -192,6 +195,91 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
       return this;
     }
 
+    public Builder zeroCopyThreshold(final int zeroCopyThreshold) {
+      config.zeroCopyThreshold(zeroCopyThreshold);
+      return this;
+    }
+
+    public Builder maxChunkSize(final int maxChunkSize) {
+      config.maxChunkSize(maxChunkSize);
+      return this;
+    }
+
+    public Builder allocator(final ByteBufAllocator allocator) {
+      config.allocator(allocator);
+      return this;
+    }
+
+    public Builder autoFlushMessages(final int autoFlushMessages) {
+      config.autoFlushMessages(autoFlushMessages);
+      return this;
+    }
+
+    public Builder autoFlushBytes(final long autoFlushBytes) {
+      config.autoFlushBytes(autoFlushBytes);
+      return this;
+    }
+
+    public Builder maxFrameSize(final long maxFrameSize) {
+      config.maxFrameSize(maxFrameSize);
+      return this;
+    }
+
+    public Builder maxMessageSize(final long maxMessageSize) {
+      config.maxMessageSize(maxMessageSize);
+      return this;
+    }
+
+    public Builder discardOversizedMessages(final boolean discardOversizedMessages) {
+      config.discardOversizedMessages(discardOversizedMessages);
+      return this;
+    }
+
+    public Builder batchedDelivery(final boolean batchedDelivery) {
+      config.batchedDelivery(batchedDelivery);
+      return this;
+    }
+
+    public Builder frameCopyThreshold(final int frameCopyThreshold) {
+      config.frameCopyThreshold(frameCopyThreshold);
+      return this;
+    }
+
+    public Builder retentionMetrics(final ZMTPRetentionMetrics retentionMetrics) {
+      config.retentionMetrics(retentionMetrics);
+      return this;
+    }
+
+    public Builder messageFilter(final ZMTPMessageFilter messageFilter) {
+      config.messageFilter(messageFilter);
+      return this;
+    }
+
+    public Builder compositeCumulation(final boolean compositeCumulation) {
+      config.compositeCumulation(compositeCumulation);
+      return this;
+    }
+
+    public Builder eagerEncoding(final boolean eagerEncoding) {
+      config.eagerEncoding(eagerEncoding);
+      return this;
+    }
+
+    public Builder sendHighWaterMark(final int sendHighWaterMark) {
+      config.sendHighWaterMark(sendHighWaterMark);
+      return this;
+    }
+
+    public Builder sendHighWaterMarkBytes(final long sendHighWaterMarkBytes) {
+      config.sendHighWaterMarkBytes(sendHighWaterMarkBytes);
+      return this;
+    }
+
+    public Builder highWaterMarkPolicy(final ZMTPHighWaterMarkPolicy highWaterMarkPolicy) {
+      config.highWaterMarkPolicy(highWaterMarkPolicy);
+      return this;
+    }
+
     public ZMTPCodec build() {
       return ZMTPCodec.from(config.build());
     }
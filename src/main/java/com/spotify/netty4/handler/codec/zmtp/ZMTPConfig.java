@@ -20,6 +20,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
 
+import io.netty.buffer.ByteBufAllocator;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
 import static io.netty.util.CharsetUtil.UTF_8;
 
@@ -38,6 +41,25 @@ public class ZMTPConfig {
   private final ZMTPEncoder.Factory encoder;
   private final ZMTPDecoder.Factory decoder;
   private final ZMTPIdentityGenerator identityGenerator;
+  private final int zeroCopyThreshold;
+  private final int maxChunkSize;
+  private final boolean eagerEncoding;
+  private final ByteBufAllocator allocator;
+  private final boolean compositeCumulation;
+  private final long maxFrameSize;
+  private final long maxMessageSize;
+  private final boolean discardOversizedMessages;
+  private final boolean batchedDelivery;
+  private final int frameCopyThreshold;
+  private final ZMTPRetentionMetrics retentionMetrics;
+  private final ZMTPMessageFilter messageFilter;
+  private final int autoFlushMessages;
+  private final long autoFlushBytes;
+  private final int sendHighWaterMark;
+  private final long sendHighWaterMarkBytes;
+  private final ZMTPHighWaterMarkPolicy highWaterMarkPolicy;
+
+  private final ZMTPGreeting greeting;
 
   private ZMTPConfig(final Builder builder) {
     this.protocol = checkNotNull(builder.protocol, "protocol");
@@ -47,6 +69,38 @@ public class ZMTPConfig {
     this.encoder = checkNotNull(builder.encoder, "encoder");
     this.decoder = checkNotNull(builder.decoder, "decoder");
     this.identityGenerator = checkNotNull(builder.identityGenerator, "identityGenerator");
+    this.zeroCopyThreshold = builder.zeroCopyThreshold;
+    checkArgument(zeroCopyThreshold >= 0, "zeroCopyThreshold must be non-negative: %d",
+                  zeroCopyThreshold);
+    this.maxChunkSize = builder.maxChunkSize;
+    checkArgument(maxChunkSize > 0, "maxChunkSize must be positive: %d", maxChunkSize);
+    this.eagerEncoding = builder.eagerEncoding;
+    this.allocator = builder.allocator;
+    this.compositeCumulation = builder.compositeCumulation;
+    this.maxFrameSize = builder.maxFrameSize;
+    checkArgument(maxFrameSize >= 0, "maxFrameSize must be non-negative: %d", maxFrameSize);
+    this.maxMessageSize = builder.maxMessageSize;
+    checkArgument(maxMessageSize >= 0, "maxMessageSize must be non-negative: %d", maxMessageSize);
+    this.discardOversizedMessages = builder.discardOversizedMessages;
+    this.batchedDelivery = builder.batchedDelivery;
+    this.frameCopyThreshold = builder.frameCopyThreshold;
+    checkArgument(frameCopyThreshold >= 0, "frameCopyThreshold must be non-negative: %d",
+                  frameCopyThreshold);
+    this.retentionMetrics = builder.retentionMetrics;
+    this.messageFilter = builder.messageFilter;
+    this.autoFlushMessages = builder.autoFlushMessages;
+    checkArgument(autoFlushMessages >= 0, "autoFlushMessages must be non-negative: %d",
+                  autoFlushMessages);
+    this.autoFlushBytes = builder.autoFlushBytes;
+    checkArgument(autoFlushBytes >= 0, "autoFlushBytes must be non-negative: %d", autoFlushBytes);
+    this.sendHighWaterMark = builder.sendHighWaterMark;
+    checkArgument(sendHighWaterMark >= 0, "sendHighWaterMark must be non-negative: %d",
+                  sendHighWaterMark);
+    this.sendHighWaterMarkBytes = builder.sendHighWaterMarkBytes;
+    checkArgument(sendHighWaterMarkBytes >= 0, "sendHighWaterMarkBytes must be non-negative: %d",
+                  sendHighWaterMarkBytes);
+    this.highWaterMarkPolicy = checkNotNull(builder.highWaterMarkPolicy, "highWaterMarkPolicy");
+    this.greeting = ZMTPGreeting.of(this);
   }
 
   public ZMTPProtocol protocol() {
@@ -77,6 +131,139 @@ public class ZMTPConfig {
     return identityGenerator;
   }
 
+  /**
+   * Frames of this size or larger are written by reference instead of being copied into the
+   * output buffer. Defaults to {@link Integer#MAX_VALUE}, i.e. all frames are copied.
+   */
+  public int zeroCopyThreshold() {
+    return zeroCopyThreshold;
+  }
+
+  /**
+   * The maximum size of each buffer allocated when encoding outgoing messages. Defaults to {@link
+   * Integer#MAX_VALUE}, i.e. all messages pending on flush are encoded into a single buffer.
+   */
+  public int maxChunkSize() {
+    return maxChunkSize;
+  }
+
+  /**
+   * Whether outgoing messages are encoded as soon as they are written instead of when flushed.
+   */
+  public boolean eagerEncoding() {
+    return eagerEncoding;
+  }
+
+  /**
+   * The allocator used for buffers allocated by the codec, or null to use the allocator of the
+   * channel.
+   */
+  public ByteBufAllocator allocator() {
+    return allocator;
+  }
+
+  /**
+   * Whether incoming data is accumulated in composite buffers instead of being merged by copying.
+   */
+  public boolean compositeCumulation() {
+    return compositeCumulation;
+  }
+
+  /**
+   * The maximum size of incoming frames.
+   */
+  public long maxFrameSize() {
+    return maxFrameSize;
+  }
+
+  /**
+   * The maximum total frame size of incoming messages.
+   */
+  public long maxMessageSize() {
+    return maxMessageSize;
+  }
+
+  /**
+   * Whether incoming messages exceeding the maximum frame or message size are discarded rather
+   * than treated as a protocol error.
+   */
+  public boolean discardOversizedMessages() {
+    return discardOversizedMessages;
+  }
+
+  /**
+   * Whether incoming messages are delivered in a {@link ZMTPMessageBatch} per read.
+   */
+  public boolean batchedDelivery() {
+    return batchedDelivery;
+  }
+
+  /**
+   * The size below which incoming frames are copied instead of sliced from the read buffer.
+   */
+  public int frameCopyThreshold() {
+    return frameCopyThreshold;
+  }
+
+  /**
+   * The metrics to record incoming frame memory retention in, or null.
+   */
+  public ZMTPRetentionMetrics retentionMetrics() {
+    return retentionMetrics;
+  }
+
+  /**
+   * The filter for incoming messages, or null.
+   */
+  public ZMTPMessageFilter messageFilter() {
+    return messageFilter;
+  }
+
+  /**
+   * The number of pending outgoing messages that triggers a flush, or 0 to only flush when
+   * requested.
+   */
+  public int autoFlushMessages() {
+    return autoFlushMessages;
+  }
+
+  /**
+   * The number of estimated pending outgoing bytes that triggers a flush, or 0 to only flush when
+   * requested.
+   */
+  public long autoFlushBytes() {
+    return autoFlushBytes;
+  }
+
+  /**
+   * The maximum number of pending outgoing messages, or 0 for no limit.
+   */
+  public int sendHighWaterMark() {
+    return sendHighWaterMark;
+  }
+
+  /**
+   * The maximum number of estimated pending outgoing bytes, or 0 for no limit.
+   */
+  public long sendHighWaterMarkBytes() {
+    return sendHighWaterMarkBytes;
+  }
+
+  /**
+   * What to do with outgoing messages when the send high water mark has been reached.
+   */
+  public ZMTPHighWaterMarkPolicy highWaterMarkPolicy() {
+    return highWaterMarkPolicy;
+  }
+
+  /**
+   * The greeting sent to peers, shared by all channels using this config and by configs equal to it
+   * in the settings the greeting depends on.
+   */
+  ZMTPGreeting greeting() {
+    return greeting;
+  }
+
   public Builder toBuilder() {
     return new Builder(this);
   }
@@ -94,6 +281,23 @@ public class ZMTPConfig {
     private ZMTPEncoder.Factory encoder = ZMTPMessageEncoder.FACTORY;
     private ZMTPDecoder.Factory decoder = ZMTPMessageDecoder.FACTORY;
     private ZMTPIdentityGenerator identityGenerator = ZMTPLongIdentityGenerator.GLOBAL;
+    private int zeroCopyThreshold = Integer.MAX_VALUE;
+    private int maxChunkSize = Integer.MAX_VALUE;
+    private boolean eagerEncoding;
+    private ByteBufAllocator allocator;
+    private boolean compositeCumulation;
+    private long maxFrameSize = Long.MAX_VALUE;
+    private long maxMessageSize = Long.MAX_VALUE;
+    private boolean discardOversizedMessages;
+    private boolean batchedDelivery;
+    private int frameCopyThreshold;
+    private ZMTPRetentionMetrics retentionMetrics;
+    private ZMTPMessageFilter messageFilter;
+    private int autoFlushMessages;
+    private long autoFlushBytes;
+    private int sendHighWaterMark;
+    private long sendHighWaterMarkBytes;
+    private ZMTPHighWaterMarkPolicy highWaterMarkPolicy = ZMTPHighWaterMarkPolicy.BLOCK;
 
     private Builder() {
     }
@@ -105,7 +309,23 @@ public class ZMTPConfig {
       this.localIdentity = config.localIdentity;
       this.encoder = config.encoder;
       this.decoder = config.decoder;
-
+      this.zeroCopyThreshold = config.zeroCopyThreshold;
+      this.maxChunkSize = config.maxChunkSize;
+      this.eagerEncoding = config.eagerEncoding;
+      this.allocator = config.allocator;
+      this.compositeCumulation = config.compositeCumulation;
+      this.maxFrameSize = config.maxFrameSize;
+      this.maxMessageSize = config.maxMessageSize;
+      this.discardOversizedMessages = config.discardOversizedMessages;
+      this.batchedDelivery = config.batchedDelivery;
+      this.frameCopyThreshold = config.frameCopyThreshold;
+      this.retentionMetrics = config.retentionMetrics;
+      this.messageFilter = config.messageFilter;
+      this.autoFlushMessages = config.autoFlushMessages;
+      this.autoFlushBytes = config.autoFlushBytes;
+      this.sendHighWaterMark = config.sendHighWaterMark;
+      this.sendHighWaterMarkBytes = config.sendHighWaterMarkBytes;
+      this.highWaterMarkPolicy = config.highWaterMarkPolicy;
     }
 
     public Builder protocol(final ZMTPProtocol protocol) {
@@ -159,6 +379,191 @@ public class ZMTPConfig {
       return this;
     }
 
+    /**
+     * Write frames of this size or larger by reference, as part of a {@link
+     * io.netty.buffer.CompositeByteBuf}, instead of copying them into the output buffer. This
+     * allows the transport to perform a gathering write of large payloads.
+     */
+    public Builder zeroCopyThreshold(final int zeroCopyThreshold) {
+      this.zeroCopyThreshold = zeroCopyThreshold;
+      return this;
+    }
+
+    /**
+     * Limit the size of the buffers allocated when encoding outgoing messages. When more messages
+     * are pending on flush than fit in a single chunk, they are encoded, written and flushed in
+     * successive chunks. This bounds memory usage and lets transmission start earlier after bursts
+     * of writes. A single message larger than the chunk size is encoded into its own buffer.
+     */
+    public Builder maxChunkSize(final int maxChunkSize) {
+      this.maxChunkSize = maxChunkSize;
+      return this;
+    }
+
+    /**
+     * Encode outgoing messages into an accumulation buffer as soon as they are written, instead
+     * of encoding all pending messages when flushing. This avoids walking the pending messages
+     * twice per flush after they have likely left the CPU cache. Note that as pending messages have
+     * already been encoded, the {@link ZMTPHighWaterMarkPolicy#DROP_OLDEST} policy drops the newest
+     * message instead. Defaults to false.
+     */
+    public Builder eagerEncoding(final boolean eagerEncoding) {
+      this.eagerEncoding = eagerEncoding;
+      return this;
+    }
+
+    /**
+     * Set the allocator to use for buffers allocated by the codec: encoder output, copied incoming
+     * frames and copies of data left over from the handshake. E.g. a pooled direct allocator avoids
+     * copying outgoing data into a direct buffer on every write, and a {@link
+     * ZMTPSizeClassAllocator} chooses between heap and direct buffers by size. Defaults to null, in
+     * which case the allocator of the channel is used.
+     *
+     * Greetings are not allocated with this allocator, as they are created once and shared by all
+     * channels, in read-only direct buffers that are never released.
+     */
+    public Builder allocator(final ByteBufAllocator allocator) {
+      this.allocator = allocator;
+      return this;
+    }
+
+    /**
+     * Accumulate incoming data that has not yet been decoded in a {@link
+     * io.netty.buffer.CompositeByteBuf} instead of copying it into a single merged buffer. Large
+     * frames that arrive over many reads can then be decoded without intermediate copies. The
+     * {@link ZMTPDecoder} is passed bounded read-only views of the frame content. Defaults to
+     * false.
+     */
+    public Builder compositeCumulation(final boolean compositeCumulation) {
+      this.compositeCumulation = compositeCumulation;
+      return this;
+    }
+
+    /**
+     * Limit the size of incoming frames. The limit is checked as soon as a frame header has been
+     * parsed, before any content is buffered. Unlimited by default.
+     *
+     * @see #discardOversizedMessages
+     */
+    public Builder maxFrameSize(final long maxFrameSize) {
+      this.maxFrameSize = maxFrameSize;
+      return this;
+    }
+
+    /**
+     * Limit the total frame size of incoming messages. The limit is checked as soon as each frame
+     * header has been parsed, before any content is buffered. Unlimited by default.
+     *
+     * @see #discardOversizedMessages
+     */
+    public Builder maxMessageSize(final long maxMessageSize) {
+      this.maxMessageSize = maxMessageSize;
+      return this;
+    }
+
+    /**
+     * Discard incoming messages that exceed the maximum frame or message size. The remaining
+     * content of the message is skipped as it arrives, without being buffered, and a {@link
+     * ZMTPMessageTooLarge} user event is fired. Otherwise oversized messages cause a {@link
+     * ZMTPParsingException}, which like other protocol errors should be handled by closing the
+     * channel. Defaults to false.
+     */
+    public Builder discardOversizedMessages(final boolean discardOversizedMessages) {
+      this.discardOversizedMessages = discardOversizedMessages;
+      return this;
+    }
+
+    /**
+     * Deliver all messages decoded from a read in a single {@link ZMTPMessageBatch} instead of
+     * firing a separate {@code channelRead} for each message. This saves a pipeline traversal per
+     * message when receiving many small messages. Defaults to false.
+     */
+    public Builder batchedDelivery(final boolean batchedDelivery) {
+      this.batchedDelivery = batchedDelivery;
+      return this;
+    }
+
+    /**
+     * Copy incoming frames smaller than this many bytes into their own buffers instead of slicing
+     * them out of the read buffer. A slice keeps the entire read buffer alive, so a single small
+     * long-lived frame, e.g. an identity kept in a routing table, can otherwise pin a large pooled
+     * buffer. Applies to the default {@link ZMTPMessageDecoder}. Defaults to 0, never copying.
+     */
+    public Builder frameCopyThreshold(final int frameCopyThreshold) {
+      this.frameCopyThreshold = frameCopyThreshold;
+      return this;
+    }
+
+    /**
+     * Record how much memory incoming frames retain in {@link ZMTPRetentionMetrics}, which may be
+     * shared by many channels. Applies to the default {@link ZMTPMessageDecoder}. Defaults to null,
+     * not recording.
+     */
+    public Builder retentionMetrics(final ZMTPRetentionMetrics retentionMetrics) {
+      this.retentionMetrics = retentionMetrics;
+      return this;
+    }
+
+    /**
+     * Filter incoming messages based on the leading bytes of their first frame. Skipped messages
+     * are discarded as they arrive, before reaching the {@link ZMTPDecoder}. Defaults to null,
+     * accepting all messages.
+     */
+    public Builder messageFilter(final ZMTPMessageFilter messageFilter) {
+      this.messageFilter = messageFilter;
+      return this;
+    }
+
+    /**
+     * Flush once this many outgoing messages are pending, even if no flush has been requested.
+     * This bounds the size of and the latency added by batching for producers that rarely flush.
+     * 0 means only flushing when requested, which is the default.
+     */
+    public Builder autoFlushMessages(final int autoFlushMessages) {
+      this.autoFlushMessages = autoFlushMessages;
+      return this;
+    }
+
+    /**
+     * Flush once this many estimated outgoing bytes are pending, even if no flush has been
+     * requested. See {@link #autoFlushMessages}. 0 means only flushing when requested, which is the
+     * default.
+     */
+    public Builder autoFlushBytes(final long autoFlushBytes) {
+      this.autoFlushBytes = autoFlushBytes;
+      return this;
+    }
+
+    /**
+     * Limit the number of outgoing messages pending in the encoder until the next flush, like the
+     * ZeroMQ ZMQ_SNDHWM socket option. When the limit is reached, a {@link
+     * ZMTPHighWaterMarkReached} user event is fired and the {@link #highWaterMarkPolicy} is
+     * applied to further messages. A {@link ZMTPHighWaterMarkCleared} user event is fired when the
+     * pending messages have been flushed. 0 means no limit, which is the default.
+     */
+    public Builder sendHighWaterMark(final int sendHighWaterMark) {
+      this.sendHighWaterMark = sendHighWaterMark;
+      return this;
+    }
+
+    /**
+     * Limit the estimated number of outgoing bytes pending in the encoder until the next flush.
+     * See {@link #sendHighWaterMark}. 0 means no limit, which is the default.
+     */
+    public Builder sendHighWaterMarkBytes(final long sendHighWaterMarkBytes) {
+      this.sendHighWaterMarkBytes = sendHighWaterMarkBytes;
+      return this;
+    }
+
+    /**
+     * Set what to do with outgoing messages when the send high water mark has been reached.
+     * Defaults to {@link ZMTPHighWaterMarkPolicy#BLOCK}.
+     */
+    public Builder highWaterMarkPolicy(final ZMTPHighWaterMarkPolicy highWaterMarkPolicy) {
+      this.highWaterMarkPolicy = highWaterMarkPolicy;
+      return this;
+    }
+
     public ZMTPConfig build() {
       return new ZMTPConfig(this);
     }
@@ -174,6 +579,23 @@ public class ZMTPConfig {
            ", localIdentity=" + localIdentity +
            ", encoder=" + encoder +
            ", decoder=" + decoder +
+           ", zeroCopyThreshold=" + zeroCopyThreshold +
+           ", maxChunkSize=" + maxChunkSize +
+           ", eagerEncoding=" + eagerEncoding +
+           ", allocator=" + allocator +
+           ", compositeCumulation=" + compositeCumulation +
+           ", maxFrameSize=" + maxFrameSize +
+           ", maxMessageSize=" + maxMessageSize +
+           ", discardOversizedMessages=" + discardOversizedMessages +
+           ", batchedDelivery=" + batchedDelivery +
+           ", frameCopyThreshold=" + frameCopyThreshold +
+           ", retentionMetrics=" + retentionMetrics +
+           ", messageFilter=" + messageFilter +
+           ", autoFlushMessages=" + autoFlushMessages +
+           ", autoFlushBytes=" + autoFlushBytes +
+           ", sendHighWaterMark=" + sendHighWaterMark +
+           ", sendHighWaterMarkBytes=" + sendHighWaterMarkBytes +
+           ", highWaterMarkPolicy=" + highWaterMarkPolicy +
            '}';
   }
 
@@ -61,6 +61,8 @@ public interface ZMTPDecoder extends Closeable {
 
   /**
    * Tear down the decoder and release e.g. retained {@link ByteBuf}s. May be called mid-message.
+   * This is also used to abandon a partially decoded message that is being discarded, after which
+   * the decoder must be ready to decode the next message, starting with a call to {@link #header}.
    */
   @Override
   void close();
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.AbstractReferenceCounted;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * A message that has been encoded once up front, for sending the same message to many peers. The
+ * codec writes the encoded content by reference instead of encoding and copying the message for
+ * every channel, making the cost of a broadcast independent of the message size.
+ *
+ * Each write takes over one reference to the message, so the message should be {@link #retain()
+ * retained} once per channel it is written to. The encoded content must not be modified.
+ */
+public class ZMTPEncodedMessage extends AbstractReferenceCounted {
+
+  private final ByteBuf zmtp10;
+  private final ByteBuf zmtp20;
+
+  private ZMTPEncodedMessage(final ByteBuf zmtp10, final ByteBuf zmtp20) {
+    this.zmtp10 = zmtp10;
+    this.zmtp20 = zmtp20;
+  }
+
+  /**
+   * Encode a message for all ZMTP versions.
+   */
+  public static ZMTPEncodedMessage from(final ZMTPMessage message) {
+    return from(ByteBufAllocator.DEFAULT, message, ZMTPVersion.values());
+  }
+
+  /**
+   * Encode a message for the specified ZMTP versions. The message is not released.
+   *
+   * @param alloc    The allocator to use for the encoded content.
+   * @param message  The message to encode.
+   * @param versions The ZMTP versions that the message will be sent using.
+   */
+  public static ZMTPEncodedMessage from(final ByteBufAllocator alloc, final ZMTPMessage message,
+                                        final ZMTPVersion... versions) {
+    checkNotNull(alloc, "alloc");
+    checkNotNull(message, "message");
+    ByteBuf zmtp10 = null;
+    ByteBuf zmtp20 = null;
+    for (final ZMTPVersion version : versions) {
+      switch (version) {
+        case ZMTP10:
+          if (zmtp10 == null) {
+            zmtp10 = message.write(alloc, version);
+          }
+          break;
+        case ZMTP20:
+          if (zmtp20 == null) {
+            zmtp20 = message.write(alloc, version);
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported version: " + version);
+      }
+    }
+    return new ZMTPEncodedMessage(zmtp10, zmtp20);
+  }
+
+  /**
+   * Get the encoded content for a ZMTP version. The returned buffer is not retained and must not
+   * be modified.
+   *
+   * @throws IllegalArgumentException if the message was not encoded for the version.
+   */
+  public ByteBuf content(final ZMTPVersion version) {
+    final ByteBuf content = contentOrNull(version);
+    checkArgument(content != null, "message not encoded for %s", version);
+    return content;
+  }
+
+  /**
+   * Check whether the message was encoded for a ZMTP version.
+   */
+  public boolean isEncoded(final ZMTPVersion version) {
+    return contentOrNull(version) != null;
+  }
+
+  private ByteBuf contentOrNull(final ZMTPVersion version) {
+    switch (version) {
+      case ZMTP10:
+        return zmtp10;
+      case ZMTP20:
+        return zmtp20;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public ZMTPEncodedMessage retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public ZMTPEncodedMessage retain(final int increment) {
+    super.retain(increment);
+    return this;
+  }
+
+  @Override
+  protected void deallocate() {
+    if (zmtp10 != null) {
+      zmtp10.release();
+    }
+    if (zmtp20 != null) {
+      zmtp20.release();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPEncodedMessage{" +
+           "zmtp10=" + zmtp10 +
+           ", zmtp20=" + zmtp20 +
+           '}';
+  }
+}
@@ -34,6 +34,14 @@ public class ZMTPEstimator {
     this.size += wireFormat.frameLength(size);
   }
 
+  /**
+   * Estimate only the header of a frame, e.g. for a frame whose payload will be appended by
+   * reference rather than written into the output buffer.
+   */
+  public void header(final int size) {
+    this.size += wireFormat.frameLength(size) - size;
+  }
+
   public int size() {
     return size;
   }
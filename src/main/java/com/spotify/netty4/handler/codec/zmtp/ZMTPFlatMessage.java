@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * A message backed by a single buffer and a table of frame offsets and lengths, as produced by the
+ * {@link ZMTPFlatMessageDecoder}. Compared to a {@link ZMTPMessage} this saves allocating and
+ * retaining a buffer per frame, which pays off for messages with many frames that are mostly not
+ * accessed, e.g. envelopes. Frames are sliced out of the buffer only when accessed, and releasing
+ * the message releases the buffer.
+ */
+public class ZMTPFlatMessage extends AbstractReferenceCounted {
+
+  private final ByteBuf content;
+  private final int[] frames;
+
+  /**
+   * @param content The buffer containing the frames. The message takes over the reference.
+   * @param frames  The offset into the buffer and length of each frame, in pairs.
+   */
+  ZMTPFlatMessage(final ByteBuf content, final int[] frames) {
+    this.content = checkNotNull(content, "content");
+    this.frames = checkNotNull(frames, "frames");
+  }
+
+  /**
+   * The number of frames in this message.
+   */
+  public int size() {
+    return frames.length / 2;
+  }
+
+  /**
+   * Get the length of a specific frame.
+   */
+  public int frameLength(final int i) {
+    return frames[i * 2 + 1];
+  }
+
+  /**
+   * Get a specific frame. The returned buffer is a slice of the message buffer, which is only valid
+   * as long as the message has not been released and which is not retained.
+   */
+  public ByteBuf frame(final int i) {
+    return content.slice(frames[i * 2], frames[i * 2 + 1]);
+  }
+
+  /**
+   * Create a {@link ZMTPMessage} with retained slices of the frames of this message.
+   */
+  public ZMTPMessage toMessage() {
+    final ByteBuf[] frames = new ByteBuf[size()];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = frame(i).retain();
+    }
+    return ZMTPMessage.from(frames);
+  }
+
+  @Override
+  public ZMTPFlatMessage retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public ZMTPFlatMessage retain(final int increment) {
+    super.retain(increment);
+    return this;
+  }
+
+  @Override
+  protected void deallocate() {
+    content.release();
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPFlatMessage{" +
+           "frames=" + size() +
+           ", content=" + content +
+           '}';
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Decodes incoming messages into {@link ZMTPFlatMessage}s.
+ *
+ * When used with the ZMTP codec, messages that are received in their entirety in a single read are
+ * sliced out of the read buffer as a whole, without going through the per frame callbacks of this
+ * decoder. Messages that arrive over multiple reads are copied frame by frame into a single
+ * buffer.
+ */
+public class ZMTPFlatMessageDecoder implements ZMTPDecoder {
+
+  public static final Factory FACTORY = new Factory() {
+    @Override
+    public ZMTPDecoder decoder(final ZMTPSession session) {
+      return new ZMTPFlatMessageDecoder(session.config().allocator());
+    }
+  };
+
+  private final ByteBufAllocator allocator;
+
+  private ByteBuf content;
+  private int[] frames = new int[16];
+  private int size;
+
+  public ZMTPFlatMessageDecoder() {
+    this(null);
+  }
+
+  /**
+   * Create a decoder that copies messages arriving over multiple reads into buffers from a
+   * specific allocator.
+   *
+   * @param allocator The allocator for message buffers, or null to use the allocator of the
+   *                  channel.
+   */
+  public ZMTPFlatMessageDecoder(final ByteBufAllocator allocator) {
+    this.allocator = allocator;
+  }
+
+  @Override
+  public void header(final ChannelHandlerContext ctx, final long length, final boolean more,
+                     final List<Object> out) {
+    if (content == null) {
+      content = (allocator != null ? allocator : ctx.alloc()).buffer();
+    }
+    if (frames.length < size + 2) {
+      frames = Arrays.copyOf(frames, frames.length * 2);
+    }
+    frames[size++] = content.writerIndex();
+    frames[size++] = (int) length;
+  }
+
+  @Override
+  public void content(final ChannelHandlerContext ctx, final ByteBuf data, final List<Object> out) {
+    content.writeBytes(data);
+  }
+
+  @Override
+  public void finish(final ChannelHandlerContext ctx, final List<Object> out) {
+    out.add(new ZMTPFlatMessage(content, Arrays.copyOf(frames, size)));
+    content = null;
+    size = 0;
+  }
+
+  @Override
+  public void close() {
+    if (content != null) {
+      content.release();
+      content = null;
+    }
+    size = 0;
+  }
+}
@@ -16,12 +16,21 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import java.util.Arrays;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.RecvByteBufAllocator;
 import io.netty.handler.codec.ByteToMessageDecoder;
 
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.LONG_FLAG;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.MORE_FLAG;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+import static io.netty.buffer.Unpooled.unmodifiableBuffer;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 /**
@@ -29,15 +38,98 @@ import static java.lang.Math.min;
  */
 class ZMTPFramingDecoder extends ByteToMessageDecoder {
 
+  /**
+   * Cumulates reads as components of an unbounded composite buffer without ever copying them.
+   * Unlike {@link #COMPOSITE_CUMULATOR}, it does not consolidate after a handful of components nor
+   * copy when the cumulation is shared with frames sliced out of it, so large frames received in
+   * many reads stay zero-copy.
+   */
+  private static final Cumulator ZERO_COPY_CUMULATOR = new Cumulator() {
+    @Override
+    public ByteBuf cumulate(final ByteBufAllocator alloc, final ByteBuf cumulation,
+                            final ByteBuf in) {
+      if (!in.isReadable()) {
+        in.release();
+        return cumulation;
+      }
+      final CompositeByteBuf composite;
+      if (cumulation instanceof CompositeByteBuf &&
+          ((CompositeByteBuf) cumulation).maxNumComponents() == Integer.MAX_VALUE) {
+        composite = (CompositeByteBuf) cumulation;
+      } else {
+        composite = alloc.compositeBuffer(Integer.MAX_VALUE);
+        append(composite, cumulation);
+      }
+      append(composite, in);
+      return composite;
+    }
+
+    private void append(final CompositeByteBuf composite, final ByteBuf buf) {
+      final int length = buf.readableBytes();
+      composite.addComponent(buf);
+      composite.writerIndex(composite.writerIndex() + length);
+    }
+  };
+
   private final ZMTPDecoder decoder;
   private final ZMTPWireFormat.Header header;
+  private final boolean compositeCumulation;
+  private final long maxFrameSize;
+  private final long maxMessageSize;
+  private final boolean discardOversizedMessages;
+  private final boolean batchedDelivery;
+  private final ZMTPMessageFilter filter;
+  private final boolean shortFrames;
+  private final boolean flatMessages;
 
   private long remaining;
   private boolean headerParsed;
+  private boolean more;
+  private boolean firstFrame = true;
+  private long messageSize;
+  private boolean filtering;
+  private boolean discarding;
+  private int[] flatFrames;
+  private ZMTPRecvByteBufAllocator recvAllocator;
 
   public ZMTPFramingDecoder(final ZMTPWireFormat wireFormat, final ZMTPDecoder decoder) {
+    this(wireFormat, decoder, false, Long.MAX_VALUE, Long.MAX_VALUE, false, false, null);
+  }
+
+  ZMTPFramingDecoder(final ZMTPSession session, final ZMTPDecoder decoder) {
+    this(ZMTPWireFormats.wireFormat(checkNotNull(session, "session").negotiatedVersion()), decoder,
+         session.config().compositeCumulation(), session.config().maxFrameSize(),
+         session.config().maxMessageSize(), session.config().discardOversizedMessages(),
+         session.config().batchedDelivery(), session.config().messageFilter());
+  }
+
+  private ZMTPFramingDecoder(final ZMTPWireFormat wireFormat, final ZMTPDecoder decoder,
+                             final boolean compositeCumulation, final long maxFrameSize,
+                             final long maxMessageSize, final boolean discardOversizedMessages,
+                             final boolean batchedDelivery, final ZMTPMessageFilter filter) {
     this.header = wireFormat.header();
     this.decoder = decoder;
+    this.compositeCumulation = compositeCumulation;
+    this.discardOversizedMessages = discardOversizedMessages;
+    this.batchedDelivery = batchedDelivery;
+    this.filter = filter;
+    this.shortFrames = wireFormat instanceof ZMTP20WireFormat && !compositeCumulation;
+    this.flatMessages = decoder instanceof ZMTPFlatMessageDecoder;
+    // Frames decoded into a ByteBuf, and flat messages as a whole, are limited to int lengths
+    final boolean intFrames = flatMessages || decoder instanceof ZMTPMessageDecoder;
+    this.maxFrameSize = intFrames ? min(maxFrameSize, Integer.MAX_VALUE) : maxFrameSize;
+    this.maxMessageSize = flatMessages ? min(maxMessageSize, Integer.MAX_VALUE) : maxMessageSize;
+    if (compositeCumulation) {
+      setCumulator(ZERO_COPY_CUMULATOR);
+    }
+  }
+
+  @Override
+  public void handlerAdded(final ChannelHandlerContext ctx) {
+    final RecvByteBufAllocator allocator = ctx.channel().config().getRecvByteBufAllocator();
+    if (allocator instanceof ZMTPRecvByteBufAllocator) {
+      recvAllocator = (ZMTPRecvByteBufAllocator) allocator;
+    }
   }
 
   @Override
@@ -48,7 +140,43 @@ class ZMTPFramingDecoder extends ByteToMessageDecoder {
   @Override
   protected void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out)
       throws ZMTPParsingException {
+    if (!batchedDelivery) {
+      decodeFrames(ctx, in, out);
+    } else {
+      final ZMTPMessageBatch batch = ZMTPMessageBatch.newInstance();
+      try {
+        decodeFrames(ctx, in, batch.messages());
+      } finally {
+        if (batch.size() == 0) {
+          batch.release();
+        } else {
+          out.add(batch);
+        }
+      }
+    }
+    if (recvAllocator != null) {
+      // Let the allocator size the next read for the rest of the frame being received, if any
+      final long missing = headerParsed ? remaining - in.readableBytes() : 0;
+      recvAllocator.expect(max(missing, 0));
+    }
+  }
+
+  private void decodeFrames(final ChannelHandlerContext ctx, final ByteBuf in,
+                            final List<Object> out) throws ZMTPParsingException {
     while (in.isReadable()) {
+      if (flatMessages && !headerParsed && firstFrame && !discarding) {
+        if (decodeFlatMessage(in, out)) {
+          continue;
+        }
+      }
+
+      if (shortFrames && !headerParsed) {
+        decodeShortFrames(ctx, in, out);
+        if (headerParsed || !in.isReadable()) {
+          continue;
+        }
+      }
+
       if (!headerParsed) {
         final int mark = in.readerIndex();
         headerParsed = header.read(in);
@@ -57,26 +185,218 @@ class ZMTPFramingDecoder extends ByteToMessageDecoder {
           in.readerIndex(mark);
           return;
         }
-        decoder.header(ctx, header.length(), header.more(), out);
-        remaining = header.length();
+        final long length = header.length();
+        final boolean first = firstFrame;
+        remaining = length;
+        more = header.more();
+        firstFrame = !more;
+        if (!discarding) {
+          messageSize += length;
+          if (length > maxFrameSize || messageSize > maxMessageSize) {
+            tooLarge(ctx, length);
+          } else if (filter != null && first) {
+            filtering = true;
+          } else {
+            decoder.header(ctx, length, more, out);
+          }
+        }
+      }
+
+      if (filtering) {
+        final int n = (int) min(remaining, filter.prefixLength());
+        if (in.readableBytes() < n) {
+          // Wait for more data
+          return;
+        }
+        filtering = false;
+        if (accept(in, in.readerIndex(), n, remaining, more)) {
+          decoder.header(ctx, remaining, more, out);
+        } else {
+          discarding = true;
+        }
+      }
+
+      if (discarding) {
+        final int n = (int) min(remaining, in.readableBytes());
+        in.skipBytes(n);
+        remaining -= n;
+        if (remaining > 0) {
+          // Wait for more data
+          return;
+        }
+        if (!more) {
+          discarding = false;
+          messageSize = 0;
+        }
+        headerParsed = false;
+        continue;
       }
 
-      final int writerMark = in.writerIndex();
       final int n = (int) min(remaining, in.readableBytes());
-      final int readerMark = in.readerIndex();
-      in.writerIndex(readerMark + n);
-      decoder.content(ctx, in, out);
-      in.writerIndex(writerMark);
-      final int read = in.readerIndex() - readerMark;
+      final int read;
+      if (compositeCumulation) {
+        // Bound the content using a read-only view instead of touching the cumulation
+        final ByteBuf content = unmodifiableBuffer(in.slice(in.readerIndex(), n));
+        decoder.content(ctx, content, out);
+        read = content.readerIndex();
+        in.skipBytes(read);
+      } else {
+        final int writerMark = in.writerIndex();
+        final int readerMark = in.readerIndex();
+        in.writerIndex(readerMark + n);
+        decoder.content(ctx, in, out);
+        in.writerIndex(writerMark);
+        read = in.readerIndex() - readerMark;
+      }
       remaining -= read;
       if (remaining > 0) {
         // Wait for more data
         return;
       }
-      if (!header.more()) {
+      if (!more) {
         decoder.finish(ctx, out);
+        messageSize = 0;
       }
       headerParsed = false;
     }
   }
+
+  /**
+   * Decode all complete short ZMTP/2.0 frames at the start of the buffer in a single pass, parsing
+   * the headers inline. Frames of filtered and discarded messages are skipped in place. Stops at
+   * the first long, incomplete or oversized frame, leaving it to the generic path.
+   */
+  private void decodeShortFrames(final ChannelHandlerContext ctx, final ByteBuf in,
+                                 final List<Object> out) {
+    final int writerIndex = in.writerIndex();
+    int index = in.readerIndex();
+    while (writerIndex - index >= 2) {
+      final int header = in.getUnsignedShort(index);
+      final int flags = header >>> 8;
+      if ((flags & LONG_FLAG) != 0) {
+        break;
+      }
+      final int length = header & 0xff;
+      final int start = index + 2;
+      final int end = start + length;
+      if (end > writerIndex ||
+          (!discarding && (length > maxFrameSize || messageSize + length > maxMessageSize))) {
+        break;
+      }
+      final boolean more = (flags & MORE_FLAG) != 0;
+      if (discarding) {
+        firstFrame = !more;
+        if (!more) {
+          discarding = false;
+          messageSize = 0;
+        }
+        index = end;
+        continue;
+      }
+      if (filter != null && firstFrame &&
+          !accept(in, start, min(length, filter.prefixLength()), length, more)) {
+        firstFrame = !more;
+        discarding = more;
+        index = end;
+        continue;
+      }
+      firstFrame = !more;
+      messageSize += length;
+      decoder.header(ctx, length, more, out);
+      in.setIndex(start, end);
+      decoder.content(ctx, in, out);
+      in.writerIndex(writerIndex);
+      if (in.readerIndex() < end) {
+        // Let the generic path deal with decoders that do not consume all content at once
+        remaining = end - in.readerIndex();
+        this.more = more;
+        headerParsed = true;
+        return;
+      }
+      if (!more) {
+        decoder.finish(ctx, out);
+        messageSize = 0;
+      }
+      index = end;
+    }
+    in.readerIndex(index);
+  }
+
+  /**
+   * Decode an entire message in place as a {@link ZMTPFlatMessage} backed by a single slice of the
+   * buffer, if it has been received in its entirety and is within the size limits. Otherwise the
+   * buffer is left untouched for the generic path.
+   *
+   * @return true if a message was decoded or filtered out, false otherwise.
+   */
+  private boolean decodeFlatMessage(final ByteBuf in, final List<Object> out)
+      throws ZMTPParsingException {
+    if (flatFrames == null) {
+      flatFrames = new int[16];
+    }
+    final int start = in.readerIndex();
+    long size = 0;
+    int n = 0;
+    boolean more = true;
+    while (more) {
+      if (!header.read(in)) {
+        in.readerIndex(start);
+        return false;
+      }
+      final long length = header.length();
+      size += length;
+      if (length > in.readableBytes() || length > maxFrameSize || size > maxMessageSize) {
+        in.readerIndex(start);
+        return false;
+      }
+      if (flatFrames.length < n + 2) {
+        flatFrames = Arrays.copyOf(flatFrames, flatFrames.length * 2);
+      }
+      flatFrames[n++] = in.readerIndex() - start;
+      flatFrames[n++] = (int) length;
+      in.skipBytes((int) length);
+      more = header.more();
+    }
+    if (filter != null &&
+        !accept(in, start + flatFrames[0], min(flatFrames[1], filter.prefixLength()),
+                flatFrames[1], n > 2)) {
+      return true;
+    }
+    final ByteBuf content = in.slice(start, in.readerIndex() - start).retain();
+    out.add(new ZMTPFlatMessage(content, Arrays.copyOf(flatFrames, n)));
+    return true;
+  }
+
+  /**
+   * Ask the filter whether to accept a message, passing it a view of the leading bytes of the first
+   * frame without copying or slicing them.
+   */
+  private boolean accept(final ByteBuf in, final int index, final int prefixLength,
+                         final long length, final boolean more) {
+    final int readerIndex = in.readerIndex();
+    final int writerIndex = in.writerIndex();
+    in.setIndex(index, index + prefixLength);
+    try {
+      return filter.accept(in, length, more);
+    } finally {
+      in.setIndex(readerIndex, writerIndex);
+    }
+  }
+
+  /**
+   * Handle a frame exceeding the size limits, either by failing or by discarding the rest of the
+   * message.
+   */
+  private void tooLarge(final ChannelHandlerContext ctx, final long length)
+      throws ZMTPParsingException {
+    if (!discardOversizedMessages) {
+      throw new ZMTPParsingException(
+          "Message too large: frame length " + length + " (max " + maxFrameSize + "), " +
+          "message length " + messageSize + " (max " + maxMessageSize + ")");
+    }
+    // Abandon any partially decoded message
+    decoder.close();
+    discarding = true;
+    ctx.fireUserEventTriggered(new ZMTPMessageTooLarge(length, messageSize));
+  }
 }
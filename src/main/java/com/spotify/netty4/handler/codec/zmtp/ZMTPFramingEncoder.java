@@ -21,24 +21,51 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.Channel;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
-import io.netty.channel.DefaultChannelPromise;
+import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
 /**
  * Netty ZMTP encoder.
  */
 class ZMTPFramingEncoder extends ChannelOutboundHandlerAdapter {
 
+  private static final int WRITABILITY_INDEX = 1;
+  private static final int INITIAL_ACCUMULATION_CAPACITY = 8192;
+
   private final ZMTPEncoder encoder;
+  private final ZMTPVersion version;
+  private final int maxChunkSize;
+  private final boolean eagerEncoding;
+  private final ByteBufAllocator allocator;
+  private final int autoFlushMessages;
+  private final long autoFlushBytes;
+  private final int highWaterMark;
+  private final long highWaterMarkBytes;
+  private final ZMTPHighWaterMarkPolicy highWaterMarkPolicy;
+  private final boolean trackBytes;
 
   private final List<Object> messages = new ArrayList<Object>();
   private final List<ChannelPromise> promises = new ArrayList<ChannelPromise>();
-  private ZMTPWriter writer;
-  private ZMTPEstimator estimator;
+  private final ZMTPWriter writer;
+  private final ZMTPEstimator estimator;
+
+  private ByteBuf accumulation;
+  private int accumulatedSize;
+
+  private int pendingMessages;
+  private long pendingBytes;
+  private boolean highWaterMarkReached;
+  private boolean flushing;
 
   ZMTPFramingEncoder(final ZMTPSession session, final ZMTPEncoder encoder) {
     if (session == null) {
@@ -47,92 +74,371 @@ class ZMTPFramingEncoder extends ChannelOutboundHandlerAdapter {
     if (encoder == null) {
       throw new NullPointerException("encoder");
     }
+    final ZMTPConfig config = session.config();
+    final ZMTPWireFormat wireFormat = ZMTPWireFormats.wireFormat(session.negotiatedVersion());
     this.encoder = encoder;
-    this.writer = ZMTPWriter.create(session.negotiatedVersion());
-    this.estimator = ZMTPEstimator.create(session.negotiatedVersion());
-  }
-
-  public ZMTPFramingEncoder(final ZMTPWireFormat wireFormat, final ZMTPEncoder encoder) {
-    if (wireFormat == null) {
-      throw new NullPointerException("wireFormat");
-    }
-    if (encoder == null) {
-      throw new NullPointerException("encoder");
-    }
-    this.encoder = encoder;
+    this.version = session.negotiatedVersion();
+    this.maxChunkSize = config.maxChunkSize();
+    this.eagerEncoding = config.eagerEncoding();
+    this.allocator = config.allocator();
+    this.autoFlushMessages = config.autoFlushMessages();
+    this.autoFlushBytes = config.autoFlushBytes();
+    this.highWaterMark = config.sendHighWaterMark();
+    this.highWaterMarkBytes = config.sendHighWaterMarkBytes();
+    this.highWaterMarkPolicy = config.highWaterMarkPolicy();
+    this.trackBytes = eagerEncoding || autoFlushBytes > 0 || highWaterMarkBytes > 0;
     this.writer = new ZMTPWriter(wireFormat);
     this.estimator = new ZMTPEstimator(wireFormat);
   }
 
   @Override
   public void handlerRemoved(final ChannelHandlerContext ctx) {
+    if (accumulation != null) {
+      writer.finish().release();
+      accumulation = null;
+      accumulatedSize = 0;
+    }
+    for (final Object message : messages) {
+      ReferenceCountUtil.release(message);
+    }
+    messages.clear();
+    // Take the promises before failing them, as their listeners may write to the channel again
+    final ChannelPromise[] unflushed = promises.toArray(new ChannelPromise[promises.size()]);
+    promises.clear();
+    pendingMessages = 0;
+    pendingBytes = 0;
+    // Do not leave the channel unwritable when blocking on the high water mark
+    highWaterMarkCleared(ctx);
     encoder.close();
+    if (unflushed.length > 0) {
+      final ZMTPException cause = new ZMTPException("encoder removed before messages were flushed");
+      final ChannelPromise voidPromise = ctx.voidPromise();
+      for (final ChannelPromise promise : unflushed) {
+        if (promise != voidPromise) {
+          promise.tryFailure(cause);
+        }
+      }
+    }
   }
 
   @Override
   public void write(final ChannelHandlerContext ctx, final Object msg,
-                    final ChannelPromise promise) {
-    messages.add(msg);
+                    final ChannelPromise promise) throws Exception {
+    if (msg instanceof ZMTPEncodedMessage && !((ZMTPEncodedMessage) msg).isEncoded(version)) {
+      // Fail the message here rather than halfway through encoding a chunk when flushing
+      ReferenceCountUtil.release(msg);
+      promise.tryFailure(new IllegalArgumentException("message not encoded for " + version));
+      return;
+    }
+    final int size = trackBytes ? estimate(msg) : 0;
+    if (exceedsHighWaterMark(size)) {
+      switch (highWaterMarkPolicy) {
+        case DROP_NEWEST:
+          ReferenceCountUtil.release(msg);
+          promise.trySuccess();
+          return;
+        case DROP_OLDEST:
+          if (eagerEncoding) {
+            // Pending messages have already been encoded and cannot be dropped
+            ReferenceCountUtil.release(msg);
+            promise.trySuccess();
+            return;
+          }
+          while (exceedsHighWaterMark(size)) {
+            dropOldest();
+          }
+          break;
+        case FAIL:
+          ReferenceCountUtil.release(msg);
+          promise.tryFailure(new ZMTPHighWaterMarkException(
+              "send high water mark reached: " + pendingMessages + " messages, " +
+              pendingBytes + " bytes"));
+          return;
+        case BLOCK:
+          break;
+        default:
+          throw new IllegalStateException("Unknown policy: " + highWaterMarkPolicy);
+      }
+    }
+    if (eagerEncoding) {
+      accumulate(ctx, msg, size);
+    } else {
+      messages.add(msg);
+    }
     promises.add(promise);
+    pendingMessages++;
+    pendingBytes += size;
+    if (!highWaterMarkReached && highWaterMarkReached()) {
+      highWaterMarkReached = true;
+      if (highWaterMarkPolicy == ZMTPHighWaterMarkPolicy.BLOCK) {
+        setWritable(ctx, false);
+      }
+      ctx.fireUserEventTriggered(new ZMTPHighWaterMarkReached(pendingMessages, pendingBytes));
+    }
+    if ((autoFlushMessages > 0 && pendingMessages >= autoFlushMessages) ||
+        (autoFlushBytes > 0 && pendingBytes >= autoFlushBytes)) {
+      flush(ctx);
+    }
+  }
+
+  /**
+   * Encode a message directly into the accumulation buffer, while it is still likely to be in the
+   * CPU cache. A full chunk is written out before starting a new one, but not flushed.
+   */
+  private void accumulate(final ChannelHandlerContext ctx, final Object msg, final int size) {
+    if (accumulation != null && accumulatedSize > maxChunkSize - size) {
+      writeAccumulation(ctx);
+    }
+    if (accumulation == null) {
+      final int capacity = max(size, min(INITIAL_ACCUMULATION_CAPACITY, maxChunkSize));
+      accumulation = alloc(ctx).buffer(capacity);
+      writer.reset(accumulation);
+    } else {
+      accumulation.ensureWritable(size);
+    }
+    accumulatedSize += size;
+    encode(msg);
+  }
+
+  private void encode(final Object message) {
+    if (message instanceof ZMTPEncodedMessage) {
+      final ByteBuf content = ((ZMTPEncodedMessage) message).content(version);
+      writer.append(content.duplicate().retain());
+    } else {
+      encoder.encode(message, writer);
+    }
+    ReferenceCountUtil.release(message);
+  }
+
+  private void writeAccumulation(final ChannelHandlerContext ctx) {
+    final ByteBuf output = writer.finish();
+    final ChannelPromise promise = aggregate(ctx, 0, promises.size());
+    accumulation = null;
+    accumulatedSize = 0;
+    promises.clear();
+    ctx.write(output, promise);
+  }
+
+  /**
+   * Estimate the size of a message. Pre-encoded messages are written by reference and shared
+   * between channels, so they do not count towards the output buffer size or pending bytes.
+   */
+  private int estimate(final Object message) {
+    if (message instanceof ZMTPEncodedMessage) {
+      return 0;
+    }
+    estimator.reset();
+    encoder.estimate(message, estimator);
+    return estimator.size();
+  }
+
+  /**
+   * Check whether queueing a message of {@code size} estimated bytes would exceed the high water
+   * mark. A message is always accepted into an empty queue.
+   */
+  private boolean exceedsHighWaterMark(final int size) {
+    if (pendingMessages == 0) {
+      return false;
+    }
+    return (highWaterMark > 0 && pendingMessages >= highWaterMark) ||
+           (highWaterMarkBytes > 0 && pendingBytes + size > highWaterMarkBytes);
+  }
+
+  private boolean highWaterMarkReached() {
+    return (highWaterMark > 0 && pendingMessages >= highWaterMark) ||
+           (highWaterMarkBytes > 0 && pendingBytes >= highWaterMarkBytes);
+  }
+
+  private void dropOldest() {
+    final Object message = messages.remove(0);
+    final ChannelPromise promise = promises.remove(0);
+    pendingMessages--;
+    if (trackBytes) {
+      pendingBytes -= estimate(message);
+    }
+    ReferenceCountUtil.release(message);
+    promise.trySuccess();
+  }
+
+  private void highWaterMarkCleared(final ChannelHandlerContext ctx) {
+    if (!highWaterMarkReached || highWaterMarkReached()) {
+      return;
+    }
+    highWaterMarkReached = false;
+    if (highWaterMarkPolicy == ZMTPHighWaterMarkPolicy.BLOCK) {
+      setWritable(ctx, true);
+    }
+    ctx.fireUserEventTriggered(new ZMTPHighWaterMarkCleared(pendingMessages, pendingBytes));
+  }
+
+  private static void setWritable(final ChannelHandlerContext ctx, final boolean writable) {
+    final ChannelOutboundBuffer buffer = ctx.channel().unsafe().outboundBuffer();
+    if (buffer != null) {
+      buffer.setUserDefinedWritability(WRITABILITY_INDEX, writable);
+    }
   }
 
   @Override
   public void flush(final ChannelHandlerContext ctx) throws Exception {
-    if (messages == null) {
+    if (flushing) {
+      // Messages written while flushing are picked up by the ongoing flush
       return;
     }
-    estimator.reset();
-    for (final Object message : messages) {
-      encoder.estimate(message, estimator);
+    if (eagerEncoding) {
+      if (accumulation != null) {
+        pendingMessages = 0;
+        pendingBytes = 0;
+        writeAccumulation(ctx);
+      }
+      ctx.flush();
+      highWaterMarkCleared(ctx);
+      return;
     }
-    final ByteBuf output = ctx.alloc().buffer(estimator.size());
-    writer.reset(output);
-    for (final Object message : messages) {
-      encoder.encode(message, writer);
-      ReferenceCountUtil.release(message);
+    if (messages.isEmpty()) {
+      ctx.flush();
+      return;
+    }
+    flushing = true;
+    try {
+      // Encode messages into successive buffers of at most maxChunkSize bytes, unless a single
+      // message is larger than that. Messages written while flushing, e.g. by promise listeners,
+      // are queued behind the ones being written and picked up by the following chunks.
+      while (true) {
+        int end = 0;
+        int size = 0;
+        while (end < messages.size()) {
+          final int messageSize = estimate(messages.get(end));
+          if (end > 0 && size > maxChunkSize - messageSize) {
+            break;
+          }
+          size += messageSize;
+          end++;
+        }
+        writeChunk(ctx, end, size);
+        if (messages.isEmpty()) {
+          break;
+        }
+        ctx.flush();
+      }
+    } finally {
+      flushing = false;
     }
-    final ChannelPromise aggregate = new AggregatePromise(ctx.channel(), promises);
-    messages.clear();
-    promises.clear();
-    ctx.write(output, aggregate);
     ctx.flush();
+    highWaterMarkCleared(ctx);
   }
 
-  private static class AggregatePromise extends DefaultChannelPromise {
+  /**
+   * Encode and write the first {@code end} pending messages. They are removed from the queue
+   * before the output is written, as writing may complete promises whose listeners write or drop
+   * messages.
+   */
+  private void writeChunk(final ChannelHandlerContext ctx, final int end, final int size) {
+    writer.reset(alloc(ctx).buffer(size));
+    for (int i = 0; i < end; i++) {
+      encode(messages.get(i));
+    }
+    final ChannelPromise promise = aggregate(ctx, 0, end);
+    messages.subList(0, end).clear();
+    promises.subList(0, end).clear();
+    pendingMessages -= end;
+    if (trackBytes) {
+      pendingBytes -= size;
+    }
+    ctx.write(writer.finish(), promise);
+  }
 
-    private final ChannelPromise[] promises;
+  private ByteBufAllocator alloc(final ChannelHandlerContext ctx) {
+    return allocator != null ? allocator : ctx.alloc();
+  }
 
-    private AggregatePromise(final Channel channel,
-                             final List<ChannelPromise> promises) {
-      super(channel);
-      this.promises = promises.toArray(new ChannelPromise[promises.size()]);
+  /**
+   * Get a single promise for writing the output of a range of the pending messages. Void promises
+   * are not notified, so if all messages were written with void promises a void promise is used
+   * for the output as well. If only a single promise needs to be notified, it is used directly.
+   *
+   * Otherwise the output is written with the last of the promises, and a recycled listener on it
+   * notifies the others, so no promise is allocated for aggregating them. Adding the listener only
+   * allocates if the promise already has a listener of its own. A promise that can no longer carry
+   * the write, as it has been cancelled or completed, is notified along with the others of a new
+   * promise instead.
+   */
+  private ChannelPromise aggregate(final ChannelHandlerContext ctx, final int start,
+                                   final int end) {
+    final ChannelPromise voidPromise = ctx.voidPromise();
+    ChannelPromise promise = null;
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      final ChannelPromise p = promises.get(i);
+      if (p != voidPromise) {
+        promise = p;
+        count++;
+      }
     }
+    if (count == 0) {
+      return voidPromise;
+    }
+    if (count == 1) {
+      return promise;
+    }
+    final ChannelPromise carrier =
+        promise.setUncancellable() && !promise.isDone() ? promise : ctx.newPromise();
+    carrier.addListener(AggregateListener.newInstance(promises, start, end, count, carrier,
+                                                      voidPromise));
+    return carrier;
+  }
 
-    @Override
-    public ChannelPromise setSuccess(final Void result) {
-      super.setSuccess(result);
-      for (final ChannelPromise promise : promises) {
-        promise.setSuccess(result);
+  /**
+   * Notifies a set of promises when the write carrying them completes. Instances and their promise
+   * arrays are recycled.
+   */
+  private static class AggregateListener implements ChannelFutureListener {
+
+    private static final Recycler<AggregateListener> RECYCLER = new Recycler<AggregateListener>() {
+      @Override
+      protected AggregateListener newObject(final Handle handle) {
+        return new AggregateListener(handle);
       }
-      return this;
+    };
+
+    private final Recycler.Handle handle;
+
+    private ChannelPromise[] promises = new ChannelPromise[16];
+    private int count;
+
+    private AggregateListener(final Recycler.Handle handle) {
+      this.handle = handle;
     }
 
-    @Override
-    public boolean trySuccess() {
-      final boolean result = super.trySuccess();
-      for (final ChannelPromise promise : promises) {
-        promise.trySuccess();
+    static AggregateListener newInstance(final List<ChannelPromise> promises, final int start,
+                                         final int end, final int count,
+                                         final ChannelPromise carrier,
+                                         final ChannelPromise voidPromise) {
+      final AggregateListener listener = RECYCLER.get();
+      if (listener.promises.length < count) {
+        listener.promises = new ChannelPromise[count];
+      }
+      for (int i = start; i < end; i++) {
+        final ChannelPromise promise = promises.get(i);
+        if (promise != voidPromise && promise != carrier) {
+          listener.promises[listener.count++] = promise;
+        }
       }
-      return result;
+      return listener;
     }
 
     @Override
-    public ChannelPromise setFailure(final Throwable cause) {
-      super.setFailure(cause);
-      for (final ChannelPromise promise : promises) {
-        promise.setFailure(cause);
+    public void operationComplete(final ChannelFuture future) {
+      final Throwable cause = future.cause();
+      for (int i = 0; i < count; i++) {
+        if (cause == null) {
+          promises[i].trySuccess();
+        } else {
+          promises[i].tryFailure(cause);
+        }
+        promises[i] = null;
       }
-      return this;
+      count = 0;
+      RECYCLER.recycle(this, handle);
     }
   }
 }
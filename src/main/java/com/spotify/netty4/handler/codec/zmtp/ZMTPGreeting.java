@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * The greeting sent to peers during the handshake. As it only depends on the protocol, socket type,
+ * identity and interop setting of a {@link ZMTPConfig}, it is created once for each combination of
+ * them and shared by all configs and channels using it.
+ *
+ * The greeting is kept in read-only direct buffers that cannot be released, and each channel is
+ * sent a duplicate of them. Their memory is reclaimed by the garbage collector once no config or
+ * channel refers to them.
+ *
+ * Greetings are cached for the life of the JVM, in a cache shared by all configs. This lets
+ * applications that build a config per connection, e.g. using {@link ZMTPCodec#of}, reuse a single
+ * greeting instead of allocating direct buffers for every connection. Cached greetings are never
+ * evicted: a greeting is shared by channels that may outlive any config using it, so there is no
+ * point at which it is known to be unused, and applications typically use a handful of identities.
+ * The cache is instead bounded to {@link #MAX_CACHED} greetings, pinning well under a megabyte as
+ * a greeting is at most a few hundred bytes. Greetings for configs beyond the bound are owned by
+ * their config and reclaimed along with it.
+ */
+final class ZMTPGreeting {
+
+  /**
+   * Bound the cache, as applications creating configs with unique identities would otherwise grow
+   * it without limit and pin direct memory for each of them.
+   */
+  private static final int MAX_CACHED = 1024;
+
+  private static final ConcurrentMap<Key, ZMTPGreeting> CACHE =
+      new ConcurrentHashMap<Key, ZMTPGreeting>();
+
+  private final ByteBuf greeting;
+  private final ByteBuf body;
+
+  /**
+   * @param greeting The greeting to send immediately when a connection is established.
+   * @param body     The greeting body to send once the peer version is known in a split handshake,
+   *                 or null if there is none.
+   */
+  ZMTPGreeting(final ByteBuf greeting, final ByteBuf body) {
+    this.greeting = share(greeting);
+    this.body = body == null ? null : share(body);
+  }
+
+  /**
+   * Get the greeting for a config, creating it using the config protocol only if no config with the
+   * same protocol, socket type, identity and interop setting has been created before.
+   */
+  static ZMTPGreeting of(final ZMTPConfig config) {
+    final Key key = new Key(config);
+    final ZMTPGreeting cached = CACHE.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    final ZMTPGreeting greeting = config.protocol().greeting(config);
+    if (CACHE.size() >= MAX_CACHED) {
+      return greeting;
+    }
+    final ZMTPGreeting existing = CACHE.putIfAbsent(key, greeting);
+    return existing != null ? existing : greeting;
+  }
+
+  /**
+   * Get the greeting to send immediately when a connection is established.
+   */
+  ByteBuf greeting() {
+    return greeting.duplicate();
+  }
+
+  /**
+   * Get the greeting body to send once the peer version is known in a split handshake.
+   */
+  ByteBuf body() {
+    if (body == null) {
+      throw new IllegalStateException("no greeting body");
+    }
+    return body.duplicate();
+  }
+
+  /**
+   * Copy the readable bytes of a buffer into a shared read-only direct buffer. The source buffer is
+   * released.
+   */
+  private static ByteBuf share(final ByteBuf bytes) {
+    final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.readableBytes());
+    bytes.getBytes(bytes.readerIndex(), direct);
+    bytes.release();
+    direct.flip();
+    return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(direct)));
+  }
+
+  private static final class Key {
+
+    private final ZMTPProtocol protocol;
+    private final ZMTPSocketType socketType;
+    private final byte[] identity;
+    private final boolean interop;
+    private final int hash;
+
+    Key(final ZMTPConfig config) {
+      this.protocol = config.protocol();
+      this.socketType = config.socketType();
+      final ByteBuffer identity = config.localIdentity().duplicate();
+      this.identity = new byte[identity.remaining()];
+      identity.get(this.identity);
+      this.interop = config.interop();
+      this.hash = hash();
+    }
+
+    private int hash() {
+      int result = protocol.hashCode();
+      result = 31 * result + (socketType != null ? socketType.hashCode() : 0);
+      result = 31 * result + Arrays.hashCode(identity);
+      result = 31 * result + (interop ? 1 : 0);
+      return result;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final Key that = (Key) o;
+      return hash == that.hash &&
+             interop == that.interop &&
+             protocol.equals(that.protocol) &&
+             socketType == that.socketType &&
+             Arrays.equals(identity, that.identity);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
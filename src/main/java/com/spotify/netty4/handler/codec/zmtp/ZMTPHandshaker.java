@@ -28,7 +28,8 @@ interface ZMTPHandshaker {
 
   /**
    * Continue handshake in response to receiving data from the remote peer. This method is called
-   * repeatedly until it returns a non-null {@link ZMTPHandshake} result.
+   * repeatedly until it returns a non-null {@link ZMTPHandshake} result. Input that has been
+   * processed is consumed, and the remainder is left for the next call when more data arrives.
    *
    * @param in  Data from the remote peer.
    * @param ctx The channel handler context.
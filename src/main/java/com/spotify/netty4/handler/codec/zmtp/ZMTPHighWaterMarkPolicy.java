@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+/**
+ * What to do with an outgoing message when the send high water mark has been reached.
+ */
+public enum ZMTPHighWaterMarkPolicy {
+
+  /**
+   * Discard the new message and complete its write promise successfully, like a ZeroMQ PUB socket.
+   */
+  DROP_NEWEST,
+
+  /**
+   * Discard the oldest pending messages, completing their write promises successfully, to make
+   * room for the new message.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Discard the new message and fail its write promise with a {@link ZMTPHighWaterMarkException}.
+   */
+  FAIL,
+
+  /**
+   * Accept the new message but mark the channel as not writable until the pending messages have
+   * been flushed. Producers are expected to stop writing while {@link
+   * io.netty.channel.Channel#isWritable()} is false. The event loop itself is never blocked.
+   */
+  BLOCK
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+/**
+ * Fired as a user event when the number of pending outgoing messages or bytes reaches the send
+ * high water mark.
+ */
+public class ZMTPHighWaterMarkReached {
+
+  private final int pendingMessages;
+  private final long pendingBytes;
+
+  ZMTPHighWaterMarkReached(final int pendingMessages, final long pendingBytes) {
+    this.pendingMessages = pendingMessages;
+    this.pendingBytes = pendingBytes;
+  }
+
+  /**
+   * The number of pending outgoing messages.
+   */
+  public int pendingMessages() {
+    return pendingMessages;
+  }
+
+  /**
+   * The estimated number of pending outgoing bytes. Only tracked when a byte high water mark is
+   * configured.
+   */
+  public long pendingBytes() {
+    return pendingBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPHighWaterMarkReached{" +
+           "pendingMessages=" + pendingMessages +
+           ", pendingBytes=" + pendingBytes +
+           '}';
+  }
+}
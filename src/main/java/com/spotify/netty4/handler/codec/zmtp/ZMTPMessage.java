@@ -16,6 +16,7 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -23,10 +24,14 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.Recycler;
 import io.netty.util.internal.RecyclableArrayList;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
@@ -34,12 +39,58 @@ import static io.netty.buffer.ByteBufUtil.encodeString;
 import static io.netty.util.CharsetUtil.UTF_8;
 import static java.util.Arrays.asList;
 
+/**
+ * A ZMTP message consisting of a number of frames. Instances and their frame arrays are recycled
+ * when released, so a message must not be used after it has been released.
+ *
+ * Messages are views of a range of a shared frame array, which is released when the last message
+ * using it is released. This allows {@link #push} and {@link #pop} of envelope frames in constant
+ * time without touching the reference counts of the frames.
+ */
 public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<ByteBuf> {
 
-  private final ByteBuf[] frames;
+  /**
+   * The number of free slots in front of the frames of new messages, for pushing envelope frames.
+   */
+  private static final int HEADROOM = 2;
+
+  private static final Recycler<ZMTPMessage> RECYCLER = new Recycler<ZMTPMessage>() {
+    @Override
+    protected ZMTPMessage newObject(final Handle handle) {
+      return new ZMTPMessage(handle);
+    }
+  };
 
-  private ZMTPMessage(final ByteBuf[] frames) {
-    this.frames = checkNotNull(frames, "frames");
+  private final Recycler.Handle handle;
+
+  private FrameArray array;
+  private ByteBuf[] frames;
+  private int start;
+  private int size;
+
+  private ZMTPMessage(final Recycler.Handle handle) {
+    this.handle = handle;
+  }
+
+  /**
+   * Get a recycled message with a new frame array with room for the specified number of frames.
+   */
+  private static ZMTPMessage newInstance(final int size) {
+    final FrameArray array = FrameArray.newInstance(HEADROOM, size);
+    return view(array, HEADROOM, size);
+  }
+
+  /**
+   * Get a recycled message viewing a range of a frame array. Takes over a reference to the array.
+   */
+  private static ZMTPMessage view(final FrameArray array, final int start, final int size) {
+    final ZMTPMessage message = RECYCLER.get();
+    message.setRefCnt(1);
+    message.array = array;
+    message.frames = array.frames;
+    message.start = start;
+    message.size = size;
+    return message;
   }
 
   @Override
@@ -54,6 +105,22 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
     return this;
   }
 
+  /**
+   * Create a {@link Builder} for building a message in a single buffer.
+   */
+  public static Builder builder() {
+    return builder(ByteBufAllocator.DEFAULT);
+  }
+
+  /**
+   * Create a {@link Builder} for building a message in a single buffer.
+   *
+   * @param alloc The allocator to use for the buffer.
+   */
+  public static Builder builder(final ByteBufAllocator alloc) {
+    return new Builder(alloc);
+  }
+
   /**
    * Create a new message from a string frames, using UTF-8 encoding.
    */
@@ -123,18 +190,33 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    */
   public static ZMTPMessage from(final Collection<ByteBuf> frames) {
     checkNotNull(frames, "frames");
-    return new ZMTPMessage(frames.toArray(new ByteBuf[frames.size()]));
+    final ZMTPMessage message = newInstance(frames.size());
+    if (frames instanceof List && frames instanceof RandomAccess) {
+      final List<ByteBuf> list = (List<ByteBuf>) frames;
+      for (int i = 0; i < message.size; i++) {
+        message.frames[message.start + i] = list.get(i);
+      }
+    } else {
+      int i = message.start;
+      for (final ByteBuf frame : frames) {
+        message.frames[i++] = frame;
+      }
+    }
+    return message;
   }
 
   /**
    * Create a new message from a list of frames.
    */
   public static ZMTPMessage from(final ByteBuf[] frames) {
-    return new ZMTPMessage(frames.clone());
+    checkNotNull(frames, "frames");
+    final ZMTPMessage message = newInstance(frames.length);
+    System.arraycopy(frames, 0, message.frames, message.start, frames.length);
+    return message;
   }
 
   public int size() {
-    return frames.length;
+    return size;
   }
 
   @Override
@@ -146,14 +228,31 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    * Get a specific frame.
    */
   public ByteBuf frame(final int i) {
-    return frames[i];
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("frame: " + i + ", size: " + size);
+    }
+    return frames[start + i];
+  }
+
+  /**
+   * Get a specific frame as a {@link ZMTPRoutingKey}, e.g. for looking up the routing identity of
+   * a message in a routing table. The key is created on first use and cached along with the frame,
+   * so repeated lookups, also through messages pushed or popped from this one, do not allocate.
+   * Frames must not be modified after their key has been created.
+   */
+  public ZMTPRoutingKey routingKey(final int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("frame: " + i + ", size: " + size);
+    }
+    return array.routingKey(start + i);
   }
 
   @Override
   protected void deallocate() {
-    for (final ByteBuf frame : frames) {
-      frame.release();
-    }
+    array.release();
+    array = null;
+    frames = null;
+    RECYCLER.recycle(this, handle);
   }
 
   @Override
@@ -161,20 +260,27 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
     if (this == o) { return true; }
     if (o == null || getClass() != o.getClass()) { return false; }
 
-    final ZMTPMessage byteBufs = (ZMTPMessage) o;
-
-    return Arrays.equals(frames, byteBufs.frames);
+    final ZMTPMessage that = (ZMTPMessage) o;
 
+    if (size != that.size) { return false; }
+    for (int i = 0; i < size; i++) {
+      if (!frames[start + i].equals(that.frames[that.start + i])) { return false; }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return frames != null ? Arrays.hashCode(frames) : 0;
+    int result = 1;
+    for (int i = 0; i < size; i++) {
+      result = 31 * result + frames[start + i].hashCode();
+    }
+    return result;
   }
 
   @Override
   public String toString() {
-    return "ZMTPMessage{" + toString(frames) + '}';
+    return "ZMTPMessage{" + toString(frames, start, size) + '}';
   }
 
   /**
@@ -209,16 +315,18 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    * and hex encoding everything else.
    *
    * @param frames The ZMTP frames.
+   * @param start  The index of the first frame.
+   * @param size   The number of frames.
    * @return A human readable string representation of the frames.
    */
-  private static String toString(final ByteBuf[] frames) {
+  private static String toString(final ByteBuf[] frames, final int start, final int size) {
     final StringBuilder builder = new StringBuilder("[");
-    for (int i = 0; i < frames.length; i++) {
-      final ByteBuf frame = frames[i];
+    for (int i = 0; i < size; i++) {
+      final ByteBuf frame = frames[start + i];
       builder.append('"');
       builder.append(toString(frame));
       builder.append('"');
-      if (i < frames.length - 1) {
+      if (i < size - 1) {
         builder.append(',');
       }
     }
@@ -294,31 +402,150 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
   }
 
   /**
-   * Create a new {@link ZMTPMessage} with a frame added at the front.
+   * Create a new {@link ZMTPMessage} with a frame added at the front. The new message takes over
+   * the reference to the frame. This message is left unchanged.
+   *
+   * The new message shares the frames of this message and is created in constant time, unless a
+   * frame has already been pushed in front of this message or there is no room left in front of
+   * it, in which case the frames are copied.
    */
   public ZMTPMessage push(final ByteBuf frame) {
-    for (final ByteBuf f : frames) {
-      f.retain();
+    checkNotNull(frame, "frame");
+    if (array.claim(start)) {
+      frames[start - 1] = frame;
+      return view(array.retain(), start - 1, size + 1);
     }
-    final ByteBuf[] frames = new ByteBuf[this.frames.length + 1];
-    frames[0] = frame;
-    System.arraycopy(this.frames, 0, frames, 1, this.frames.length);
-    return new ZMTPMessage(frames);
+    final ZMTPMessage message = newInstance(size + 1);
+    message.frames[message.start] = frame;
+    for (int i = 0; i < size; i++) {
+      message.frames[message.start + 1 + i] = frames[start + i].retain();
+    }
+    return message;
   }
 
   /**
-   * Create a new {@link ZMTPMessage} with the front frame removed.
+   * Create a new {@link ZMTPMessage} with the front frame removed. This message is left unchanged.
+   * The new message shares the frames of this message and is created in constant time.
    */
   public ZMTPMessage pop() {
-    if (this.frames.length == 0) {
+    if (size == 0) {
       throw new IllegalStateException("empty message");
     }
-    final ByteBuf[] frames = new ByteBuf[this.frames.length - 1];
-    System.arraycopy(this.frames, 1, frames, 0, frames.length);
-    for (final ByteBuf f : frames) {
-      f.retain();
+    return view(array.retain(), start + 1, size - 1);
+  }
+
+  /**
+   * Builds a message by writing all frames into a single buffer, producing a message with frames
+   * that are slices of that buffer. This takes a single buffer allocation per message, instead of
+   * one or more per frame. Builders can be reused after {@link #build()}.
+   */
+  public static class Builder {
+
+    private final ByteBufAllocator alloc;
+
+    private ByteBuf buf;
+    private int[] frames = new int[16];
+    private int size;
+
+    private Builder(final ByteBufAllocator alloc) {
+      this.alloc = checkNotNull(alloc, "alloc");
+    }
+
+    /**
+     * Add a frame containing a string, using UTF-8 encoding.
+     */
+    public Builder addUTF8(final CharSequence string) {
+      final int index = start();
+      ByteBufUtil.writeUtf8(buf, string);
+      return end(index);
+    }
+
+    /**
+     * Add a frame containing a string of ASCII characters, writing each character as a single
+     * byte. This is faster than {@link #addUTF8} but only valid for ASCII strings.
+     */
+    public Builder addAscii(final CharSequence string) {
+      final int index = start();
+      ByteBufUtil.writeAscii(buf, string);
+      return end(index);
+    }
+
+    /**
+     * Add a frame containing bytes.
+     */
+    public Builder add(final byte[] bytes) {
+      final int index = start();
+      buf.writeBytes(bytes);
+      return end(index);
+    }
+
+    /**
+     * Add a frame containing the remaining bytes of a {@link ByteBuffer}. The position of the
+     * {@link ByteBuffer} is not changed.
+     */
+    public Builder add(final ByteBuffer bytes) {
+      final int index = start();
+      final int position = bytes.position();
+      buf.writeBytes(bytes);
+      bytes.position(position);
+      return end(index);
+    }
+
+    /**
+     * Add a frame containing a big endian 64 bit integer.
+     */
+    public Builder add(final long value) {
+      final int index = start();
+      buf.writeLong(value);
+      return end(index);
+    }
+
+    /**
+     * Build the message. The builder is reset and can be used to build another message.
+     */
+    public ZMTPMessage build() {
+      final ZMTPMessage message = newInstance(size);
+      int slices = 0;
+      for (int i = 0; i < size; i++) {
+        final int length = frames[i * 2 + 1];
+        final ByteBuf frame;
+        if (length == 0) {
+          frame = Unpooled.EMPTY_BUFFER;
+        } else {
+          frame = buf.slice(frames[i * 2], length);
+          slices++;
+        }
+        message.frames[message.start + i] = frame;
+      }
+      // The slices share the reference count of the buffer
+      if (slices == 0) {
+        if (buf != null) {
+          buf.release();
+        }
+      } else if (slices > 1) {
+        buf.retain(slices - 1);
+      }
+      buf = null;
+      size = 0;
+      return message;
+    }
+
+    private int start() {
+      if (buf == null) {
+        buf = alloc.buffer();
+      }
+      return buf.writerIndex();
+    }
+
+    private Builder end(final int index) {
+      if (frames.length < size * 2 + 2) {
+        frames = Arrays.copyOf(frames, frames.length * 2);
+      }
+      frames[size * 2] = index;
+      frames[size * 2 + 1] = buf.writerIndex() - index;
+      size++;
+      return this;
     }
-    return new ZMTPMessage(frames);
   }
 
   /**
@@ -330,12 +557,12 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
 
     @Override
     public boolean hasNext() {
-      return i < frames.length;
+      return i < size;
     }
 
     @Override
     public ByteBuf next() {
-      return frames[i++];
+      return frames[start + i++];
     }
 
     @Override
@@ -343,4 +570,93 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
       throw new UnsupportedOperationException("remove");
     }
   }
+
+  /**
+   * A reference counted array of frames shared by messages, which releases the frames when
+   * deallocated. Frames are stored from a head index onwards, with free slots in front of the head
+   * for pushing frames. Instances and their arrays are recycled.
+   */
+  private static class FrameArray extends AbstractReferenceCounted {
+
+    private static final ByteBuf[] NO_FRAMES = new ByteBuf[0];
+    private static final ZMTPRoutingKey[] NO_KEYS = new ZMTPRoutingKey[0];
+
+    private static final Recycler<FrameArray> RECYCLER = new Recycler<FrameArray>() {
+      @Override
+      protected FrameArray newObject(final Handle handle) {
+        return new FrameArray(handle);
+      }
+    };
+
+    private final Recycler.Handle handle;
+
+    private ByteBuf[] frames = NO_FRAMES;
+    private ZMTPRoutingKey[] keys = NO_KEYS;
+    private int head;
+    private int end;
+
+    private FrameArray(final Recycler.Handle handle) {
+      this.handle = handle;
+    }
+
+    static FrameArray newInstance(final int headroom, final int size) {
+      final FrameArray array = RECYCLER.get();
+      array.setRefCnt(1);
+      if (array.frames.length < headroom + size) {
+        array.frames = new ByteBuf[headroom + size];
+        // Keys are indexed like frames, so a key cache sized for the old frames is dropped
+        array.keys = NO_KEYS;
+      }
+      array.head = headroom;
+      array.end = headroom + size;
+      return array;
+    }
+
+    /**
+     * Claim the free slot in front of the frame at an index, if it is directly in front of the
+     * head.
+     */
+    synchronized boolean claim(final int index) {
+      if (index != head || head == 0) {
+        return false;
+      }
+      head--;
+      return true;
+    }
+
+    /**
+     * Get the routing key of the frame at an index, creating it on first use. Keys are immutable,
+     * so a racing thread at worst creates the same key again.
+     */
+    ZMTPRoutingKey routingKey(final int index) {
+      ZMTPRoutingKey[] keys = this.keys;
+      if (keys.length < frames.length) {
+        keys = this.keys = new ZMTPRoutingKey[frames.length];
+      }
+      ZMTPRoutingKey key = keys[index];
+      if (key == null) {
+        key = keys[index] = ZMTPRoutingKey.of(frames[index]);
+      }
+      return key;
+    }
+
+    @Override
+    public FrameArray retain() {
+      super.retain();
+      return this;
+    }
+
+    @Override
+    protected void deallocate() {
+      final boolean keyed = keys.length > 0;
+      for (int i = head; i < end; i++) {
+        frames[i].release();
+        frames[i] = null;
+        if (keyed) {
+          keys[i] = null;
+        }
+      }
+      RECYCLER.recycle(this, handle);
+    }
+  }
 }
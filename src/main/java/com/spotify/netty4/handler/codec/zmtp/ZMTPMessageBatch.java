@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The messages decoded from a single read, delivered together when {@link
+ * ZMTPConfig.Builder#batchedDelivery batched delivery} is enabled. With the default {@link
+ * ZMTPMessageDecoder} the messages are {@link ZMTPMessage}s, otherwise they are whatever the
+ * configured {@link ZMTPDecoder} produces.
+ *
+ * Releasing the batch releases all messages in it and recycles the batch. Messages that are used
+ * after the batch has been released must be {@link ZMTPMessage#retain() retained}.
+ */
+public class ZMTPMessageBatch extends AbstractReferenceCounted {
+
+  private static final Recycler<ZMTPMessageBatch> RECYCLER = new Recycler<ZMTPMessageBatch>() {
+    @Override
+    protected ZMTPMessageBatch newObject(final Handle handle) {
+      return new ZMTPMessageBatch(handle);
+    }
+  };
+
+  private final Recycler.Handle handle;
+  private final List<Object> messages = new ArrayList<Object>();
+
+  private ZMTPMessageBatch(final Recycler.Handle handle) {
+    this.handle = handle;
+  }
+
+  static ZMTPMessageBatch newInstance() {
+    final ZMTPMessageBatch batch = RECYCLER.get();
+    batch.setRefCnt(1);
+    return batch;
+  }
+
+  /**
+   * The list that decoded messages are added to.
+   */
+  List<Object> messages() {
+    return messages;
+  }
+
+  /**
+   * The number of messages in this batch.
+   */
+  public int size() {
+    return messages.size();
+  }
+
+  /**
+   * Get a message from this batch.
+   *
+   * @param index The index of the message, between 0 and {@link #size()} exclusive.
+   */
+  public Object get(final int index) {
+    return messages.get(index);
+  }
+
+  @Override
+  public ZMTPMessageBatch retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public ZMTPMessageBatch retain(final int increment) {
+    super.retain(increment);
+    return this;
+  }
+
+  @Override
+  protected void deallocate() {
+    for (int i = 0; i < messages.size(); i++) {
+      ReferenceCountUtil.release(messages.get(i));
+    }
+    messages.clear();
+    RECYCLER.recycle(this, handle);
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPMessageBatch{" +
+           "messages=" + messages +
+           '}';
+  }
+}
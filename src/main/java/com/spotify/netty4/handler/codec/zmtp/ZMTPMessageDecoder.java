@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
@@ -28,15 +29,43 @@ public class ZMTPMessageDecoder implements ZMTPDecoder {
   public static final Factory FACTORY = new Factory() {
     @Override
     public ZMTPDecoder decoder(final ZMTPSession session) {
-      return new ZMTPMessageDecoder();
+      return new ZMTPMessageDecoder(session.config());
     }
   };
 
   private static final ByteBuf DELIMITER = Unpooled.EMPTY_BUFFER;
 
   private final List<ByteBuf> frames = new ArrayList<ByteBuf>();
+  private final int frameCopyThreshold;
+  private final ByteBufAllocator allocator;
+  private final ZMTPRetentionMetrics metrics;
+
   private int frameLength;
 
+  public ZMTPMessageDecoder() {
+    this(0, null, null);
+  }
+
+  ZMTPMessageDecoder(final ZMTPConfig config) {
+    this(config.frameCopyThreshold(), config.allocator(), config.retentionMetrics());
+  }
+
+  /**
+   * Create a decoder that copies small frames.
+   *
+   * @param frameCopyThreshold Frames smaller than this are copied instead of sliced from the read
+   *                           buffer. See {@link ZMTPConfig.Builder#frameCopyThreshold}.
+   * @param allocator          The allocator for copied frames, or null to use the allocator of
+   *                           the channel.
+   * @param metrics            The metrics to record frame memory retention in, or null.
+   */
+  public ZMTPMessageDecoder(final int frameCopyThreshold, final ByteBufAllocator allocator,
+                            final ZMTPRetentionMetrics metrics) {
+    this.frameCopyThreshold = frameCopyThreshold;
+    this.allocator = allocator;
+    this.metrics = metrics;
+  }
+
   /**
    * Reset parser in preparation for the next message.
    */
@@ -63,9 +92,30 @@ public class ZMTPMessageDecoder implements ZMTPDecoder {
       return;
     }
 
-    final ByteBuf frame = data.readSlice(frameLength);
-    frame.retain();
+    final boolean copy = frameLength < frameCopyThreshold;
+    final ByteBuf frame;
+    if (copy) {
+      final ByteBufAllocator alloc = allocator != null ? allocator : ctx.alloc();
+      frame = alloc.buffer(frameLength).writeBytes(data, frameLength);
+    } else {
+      frame = data.readSlice(frameLength);
+      frame.retain();
+    }
     frames.add(frame);
+    if (metrics != null) {
+      metrics.record(frameLength, retained(frame), copy);
+    }
+  }
+
+  /**
+   * Get the capacity of the buffer underlying a frame.
+   */
+  private static int retained(final ByteBuf frame) {
+    ByteBuf buf = frame;
+    while (buf.unwrap() != null) {
+      buf = buf.unwrap();
+    }
+    return buf.capacity();
   }
 
   @Override
@@ -23,16 +23,35 @@ public class ZMTPMessageEncoder implements ZMTPEncoder {
   public static final Factory FACTORY = new Factory() {
     @Override
     public ZMTPEncoder encoder(final ZMTPSession session) {
-      return new ZMTPMessageEncoder();
+      return new ZMTPMessageEncoder(session.config().zeroCopyThreshold());
     }
   };
 
+  private final int zeroCopyThreshold;
+
+  public ZMTPMessageEncoder() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param zeroCopyThreshold Frames of this size or larger are appended to the output by reference
+   *                          instead of being copied.
+   */
+  public ZMTPMessageEncoder(final int zeroCopyThreshold) {
+    this.zeroCopyThreshold = zeroCopyThreshold;
+  }
+
   @Override
   public void estimate(final Object msg, final ZMTPEstimator estimator) {
     final ZMTPMessage message = (ZMTPMessage) msg;
     for (int i = 0; i < message.size(); i++) {
       final ByteBuf frame = message.frame(i);
-      estimator.frame(frame.readableBytes());
+      final int size = frame.readableBytes();
+      if (size >= zeroCopyThreshold) {
+        estimator.header(size);
+      } else {
+        estimator.frame(size);
+      }
     }
   }
 
@@ -41,9 +60,14 @@ public class ZMTPMessageEncoder implements ZMTPEncoder {
     final ZMTPMessage message = (ZMTPMessage) msg;
     for (int i = 0; i < message.size(); i++) {
       final ByteBuf frame = message.frame(i);
+      final int size = frame.readableBytes();
       final boolean more = i < message.size() - 1;
-      final ByteBuf dst = writer.frame(frame.readableBytes(), more);
-      dst.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+      final ByteBuf dst = writer.frame(size, more);
+      if (size >= zeroCopyThreshold) {
+        writer.append(frame.retain());
+      } else {
+        dst.writeBytes(frame, frame.readerIndex(), size);
+      }
     }
   }
 
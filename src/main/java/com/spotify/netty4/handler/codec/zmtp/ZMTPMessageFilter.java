@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Decides whether to accept incoming messages based on the leading bytes of their first frame,
+ * e.g. for topic matching on SUB sockets. Messages are filtered before they are passed to the
+ * {@link ZMTPDecoder}, so skipped messages are discarded in place as they arrive without any
+ * frames being sliced, retained or buffered.
+ */
+public interface ZMTPMessageFilter {
+
+  /**
+   * The number of leading bytes of the first frame needed to make a decision. Frames shorter than
+   * this are passed to {@link #accept} in their entirety.
+   */
+  int prefixLength();
+
+  /**
+   * Decide whether to accept an incoming message.
+   *
+   * @param prefix The leading bytes of the first frame, at most {@link #prefixLength()} bytes. The
+   *               buffer is only valid for the duration of the call and must not be modified or
+   *               retained.
+   * @param length The total length of the first frame.
+   * @param more   {@code true} if there are additional frames following the first frame.
+   * @return {@code true} to decode the message, {@code false} to skip it.
+   */
+  boolean accept(ByteBuf prefix, long length, boolean more);
+}
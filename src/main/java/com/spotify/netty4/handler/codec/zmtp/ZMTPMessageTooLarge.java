@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+/**
+ * Fired as a user event when an incoming message exceeding the configured maximum frame or message
+ * size is discarded.
+ */
+public class ZMTPMessageTooLarge {
+
+  private final long frameLength;
+  private final long messageLength;
+
+  ZMTPMessageTooLarge(final long frameLength, final long messageLength) {
+    this.frameLength = frameLength;
+    this.messageLength = messageLength;
+  }
+
+  /**
+   * The length of the frame that caused the message to be discarded.
+   */
+  public long frameLength() {
+    return frameLength;
+  }
+
+  /**
+   * The length of the message up to and including the frame that caused it to be discarded.
+   */
+  public long messageLength() {
+    return messageLength;
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPMessageTooLarge{" +
+           "frameLength=" + frameLength +
+           ", messageLength=" + messageLength +
+           '}';
+  }
+}
@@ -19,4 +19,6 @@ package com.spotify.netty4.handler.codec.zmtp;
 public interface ZMTPProtocol {
 
   ZMTPHandshaker handshaker(ZMTPConfig config);
+
+  ZMTPGreeting greeting(ZMTPConfig config);
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+import static java.lang.Math.min;
+
+/**
+ * A {@link RecvByteBufAllocator} that sizes reads using the ZMTP frame lengths parsed by the codec.
+ * While a frame is partially received, the next read buffer is made large enough to hold the rest
+ * of the frame, up to a maximum read size, so that large frames arrive in fewer reads. Otherwise
+ * read sizes are guessed by a delegate allocator.
+ *
+ * Instances track the state of a single channel and must not be shared. Set a new instance on each
+ * channel before it starts reading, e.g. in a {@link io.netty.channel.ChannelInitializer}:
+ *
+ * <pre>
+ * ch.config().setRecvByteBufAllocator(new ZMTPRecvByteBufAllocator());
+ * </pre>
+ *
+ * Combining this with {@link ZMTPConfig.Builder#compositeCumulation composite cumulation} avoids
+ * copying large frames that span multiple reads.
+ */
+public class ZMTPRecvByteBufAllocator implements RecvByteBufAllocator {
+
+  private static final int DEFAULT_MAX_READ_SIZE = 1024 * 1024;
+
+  private final RecvByteBufAllocator delegate;
+  private final int maxReadSize;
+
+  private int expected;
+
+  public ZMTPRecvByteBufAllocator() {
+    this(AdaptiveRecvByteBufAllocator.DEFAULT, DEFAULT_MAX_READ_SIZE);
+  }
+
+  /**
+   * @param delegate    The allocator guessing read sizes when no frame is partially received.
+   * @param maxReadSize The maximum size of reads sized by frame length.
+   */
+  public ZMTPRecvByteBufAllocator(final RecvByteBufAllocator delegate, final int maxReadSize) {
+    this.delegate = checkNotNull(delegate, "delegate");
+    checkArgument(maxReadSize > 0, "maxReadSize must be positive: %d", maxReadSize);
+    this.maxReadSize = maxReadSize;
+  }
+
+  /**
+   * Set the number of bytes still missing from the frame being received, or 0 if unknown.
+   */
+  void expect(final long bytes) {
+    expected = (int) min(bytes, maxReadSize);
+  }
+
+  /**
+   * The number of bytes the next read is sized for, or 0 if read sizes are guessed by the
+   * delegate.
+   */
+  int expected() {
+    return expected;
+  }
+
+  @Override
+  public Handle newHandle() {
+    return new ZMTPHandle(delegate.newHandle());
+  }
+
+  private class ZMTPHandle implements Handle {
+
+    private final Handle delegate;
+
+    ZMTPHandle(final Handle delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ByteBuf allocate(final ByteBufAllocator alloc) {
+      if (expected > delegate.guess()) {
+        return alloc.ioBuffer(expected);
+      }
+      return delegate.allocate(alloc);
+    }
+
+    @Override
+    public int guess() {
+      final int guess = delegate.guess();
+      return expected > guess ? expected : guess;
+    }
+
+    @Override
+    public void record(final int actualReadBytes) {
+      delegate.record(actualReadBytes);
+    }
+  }
+}
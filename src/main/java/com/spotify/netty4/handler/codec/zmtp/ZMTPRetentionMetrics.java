@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics on how much memory incoming frames retain. A frame sliced out of a read buffer keeps
+ * the entire read buffer alive, while a copied frame only retains its own buffer. The ratio of
+ * retained bytes to frame bytes indicates how much memory long-lived frames may pin, and can be
+ * used to tune {@link ZMTPConfig.Builder#frameCopyThreshold}.
+ *
+ * Frames are recorded as they are decoded. The retained size of a sliced frame is the capacity of
+ * the read buffer it was sliced from, i.e. the amount of memory it keeps alive if it outlives all
+ * other frames from the same read. Instances are thread safe and may be shared by many channels.
+ *
+ * Counters are striped by thread, so that event loops sharing an instance update their own cache
+ * lines instead of contending on a single counter. Reading a counter sums the stripes, so the
+ * values read are not a consistent snapshot while frames are being recorded.
+ */
+public class ZMTPRetentionMetrics {
+
+  private static final int FRAMES = 0;
+  private static final int FRAME_BYTES = 1;
+  private static final int RETAINED_BYTES = 2;
+  private static final int COPIED_FRAMES = 3;
+  private static final int COPIED_BYTES = 4;
+
+  /**
+   * The number of longs per stripe. Spanning 128 bytes keeps stripes off each other's cache lines,
+   * including the adjacent line some CPUs prefetch.
+   */
+  private static final int STRIDE = 16;
+
+  private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+  private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIDE);
+
+  void record(final int frameLength, final int retained, final boolean copied) {
+    final int stripe = stripe();
+    counters.incrementAndGet(stripe + FRAMES);
+    counters.addAndGet(stripe + FRAME_BYTES, frameLength);
+    counters.addAndGet(stripe + RETAINED_BYTES, retained);
+    if (copied) {
+      counters.incrementAndGet(stripe + COPIED_FRAMES);
+      counters.addAndGet(stripe + COPIED_BYTES, frameLength);
+    }
+  }
+
+  /**
+   * The number of frames decoded.
+   */
+  public long frames() {
+    return sum(FRAMES);
+  }
+
+  /**
+   * The total content size of the frames decoded.
+   */
+  public long frameBytes() {
+    return sum(FRAME_BYTES);
+  }
+
+  /**
+   * The total size of the buffers retained by the frames decoded.
+   */
+  public long retainedBytes() {
+    return sum(RETAINED_BYTES);
+  }
+
+  /**
+   * The number of frames that were copied rather than sliced.
+   */
+  public long copiedFrames() {
+    return sum(COPIED_FRAMES);
+  }
+
+  /**
+   * The total content size of the frames that were copied rather than sliced.
+   */
+  public long copiedBytes() {
+    return sum(COPIED_BYTES);
+  }
+
+  /**
+   * The number of bytes retained per frame byte, or 0 if no frame content has been decoded.
+   */
+  public double retentionRatio() {
+    final long frameBytes = frameBytes();
+    return frameBytes == 0 ? 0 : (double) retainedBytes() / frameBytes;
+  }
+
+  /**
+   * Get the offset of the stripe of the current thread. Thread ids are assigned sequentially, so
+   * the threads of an event loop group map to distinct stripes as long as there are enough.
+   */
+  private static int stripe() {
+    return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+  }
+
+  private long sum(final int counter) {
+    long sum = 0;
+    for (int i = counter; i < counters.length(); i += STRIDE) {
+      sum += counters.get(i);
+    }
+    return sum;
+  }
+
+  /**
+   * Get the number of stripes for a number of processors: the next power of two of at least twice
+   * the processors, to make collisions between busy threads unlikely.
+   */
+  private static int stripes(final int processors) {
+    return Integer.highestOneBit(Math.max(processors * 2 - 1, 1)) << 1;
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPRetentionMetrics{" +
+           "frames=" + frames() +
+           ", frameBytes=" + frameBytes() +
+           ", retainedBytes=" + retainedBytes() +
+           ", copiedFrames=" + copiedFrames() +
+           ", copiedBytes=" + copiedBytes() +
+           '}';
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * An immutable key for routing tables, e.g. holding a peer identity or the routing identity frame
+ * of a message. The hash is computed once on creation, and the bytes are stored packed into
+ * longs, so that equality is checked a word at a time. Keys of up to 16 bytes, like identities
+ * generated by ZeroMQ and this library, are stored without any additional array.
+ */
+public final class ZMTPRoutingKey {
+
+  private static final long[] NO_WORDS = new long[0];
+
+  private final int length;
+  private final long w0;
+  private final long w1;
+  private final long[] rest;
+  private final int hash;
+
+  private ZMTPRoutingKey(final int length, final long w0, final long w1, final long[] rest) {
+    this.length = length;
+    this.w0 = w0;
+    this.w1 = w1;
+    this.rest = rest;
+    this.hash = hash(length, w0, w1, rest);
+  }
+
+  /**
+   * Create a key from the readable bytes of a {@link ByteBuf}. The indexes of the {@link ByteBuf}
+   * are not changed.
+   */
+  public static ZMTPRoutingKey of(final ByteBuf bytes) {
+    checkNotNull(bytes, "bytes");
+    final int index = bytes.readerIndex();
+    final int length = bytes.readableBytes();
+    final long w0 = word(bytes, index, length, 0);
+    final long w1 = word(bytes, index, length, 1);
+    final long[] rest;
+    if (length <= 16) {
+      rest = NO_WORDS;
+    } else {
+      rest = new long[(length - 16 + 7) / 8];
+      for (int i = 0; i < rest.length; i++) {
+        rest[i] = word(bytes, index, length, i + 2);
+      }
+    }
+    return new ZMTPRoutingKey(length, w0, w1, rest);
+  }
+
+  /**
+   * Create a key from the remaining bytes of a {@link ByteBuffer}. The position of the {@link
+   * ByteBuffer} is not changed.
+   */
+  public static ZMTPRoutingKey of(final ByteBuffer bytes) {
+    return of(Unpooled.wrappedBuffer(checkNotNull(bytes, "bytes")));
+  }
+
+  /**
+   * Create a key from a byte array.
+   */
+  public static ZMTPRoutingKey of(final byte[] bytes) {
+    return of(Unpooled.wrappedBuffer(checkNotNull(bytes, "bytes")));
+  }
+
+  /**
+   * Read a big endian word of the key, padding with zeros past the end.
+   */
+  private static long word(final ByteBuf bytes, final int index, final int length, final int i) {
+    final int offset = i * 8;
+    if (offset + 8 <= length) {
+      return bytes.getLong(index + offset);
+    }
+    long word = 0;
+    for (int j = offset; j < length; j++) {
+      word |= (bytes.getByte(index + j) & 0xffL) << (56 - 8 * (j - offset));
+    }
+    return word;
+  }
+
+  private long word(final int i) {
+    switch (i) {
+      case 0:
+        return w0;
+      case 1:
+        return w1;
+      default:
+        return rest[i - 2];
+    }
+  }
+
+  private static int hash(final int length, final long w0, final long w1, final long[] rest) {
+    int result = length;
+    result = 31 * result + (int) (w0 ^ (w0 >>> 32));
+    result = 31 * result + (int) (w1 ^ (w1 >>> 32));
+    for (final long word : rest) {
+      result = 31 * result + (int) (word ^ (word >>> 32));
+    }
+    return result;
+  }
+
+  /**
+   * The length of the key in bytes.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Get a copy of the bytes of the key.
+   */
+  public byte[] toByteArray() {
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (word(i / 8) >>> (56 - 8 * (i % 8)));
+    }
+    return bytes;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) { return true; }
+    if (o == null || getClass() != o.getClass()) { return false; }
+
+    final ZMTPRoutingKey that = (ZMTPRoutingKey) o;
+
+    if (hash != that.hash) { return false; }
+    if (length != that.length) { return false; }
+    if (w0 != that.w0) { return false; }
+    if (w1 != that.w1) { return false; }
+    for (int i = 0; i < rest.length; i++) {
+      if (rest[i] != that.rest[i]) { return false; }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder("ZMTPRoutingKey{");
+    for (int i = 0; i < length; i++) {
+      builder.append(String.format("%02x", (byte) (word(i / 8) >>> (56 - 8 * (i % 8)))));
+    }
+    return builder.append('}').toString();
+  }
+}
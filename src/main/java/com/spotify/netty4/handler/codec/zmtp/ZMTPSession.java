@@ -35,6 +35,7 @@ public class ZMTPSession {
   private final ZMTPConfig config;
 
   private volatile ByteBuffer peerIdentity;
+  private volatile ZMTPRoutingKey peerRoutingKey;
 
   ZMTPSession(final ZMTPConfig config) {
     this.config = checkNotNull(config, "config");
@@ -57,6 +58,17 @@ public class ZMTPSession {
     return peerIdentity.asReadOnlyBuffer();
   }
 
+  /**
+   * Get the peer identity as a {@link ZMTPRoutingKey}, e.g. for use in routing tables. The key is
+   * created once on handshake completion.
+   */
+  public ZMTPRoutingKey peerRoutingKey() {
+    if (!handshake.isDone()) {
+      throw new IllegalStateException("handshake not complete");
+    }
+    return peerRoutingKey;
+  }
+
   /**
    * Check whether the peer is anonymous and the peer identity is generated.
    */
@@ -85,6 +97,7 @@ public class ZMTPSession {
     peerIdentity = handshake.remoteIdentity().hasRemaining()
                    ? handshake.remoteIdentity()
                    : config.identityGenerator().generateIdentity(this);
+    peerRoutingKey = ZMTPRoutingKey.of(peerIdentity);
     this.handshake.setSuccess(handshake);
   }
 
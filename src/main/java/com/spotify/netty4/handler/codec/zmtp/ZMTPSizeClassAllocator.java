@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * A {@link ByteBufAllocator} that chooses between heap and direct buffers by size class. Generic
+ * {@link #buffer} requests with an initial capacity below the direct threshold are served from the
+ * heap, larger requests are served with direct buffers. Explicit heap, direct and I/O buffer
+ * requests are passed on to the underlying allocator as is.
+ *
+ * Buffers written to a socket must be copied into a direct buffer by the transport unless they are
+ * direct already, so direct buffers should generally be preferred for outgoing data, e.g. with a
+ * threshold of 0. A higher threshold can be useful to keep small, short lived buffers on the heap
+ * where the copy is cheap.
+ */
+public class ZMTPSizeClassAllocator implements ByteBufAllocator {
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 256;
+
+  private final ByteBufAllocator alloc;
+  private final int directThreshold;
+
+  /**
+   * Create a new allocator.
+   *
+   * @param alloc           The underlying allocator, e.g. {@link
+   *                        io.netty.buffer.PooledByteBufAllocator#DEFAULT}.
+   * @param directThreshold The minimum initial capacity for which direct buffers are allocated.
+   */
+  public ZMTPSizeClassAllocator(final ByteBufAllocator alloc, final int directThreshold) {
+    this.alloc = checkNotNull(alloc, "alloc");
+    checkArgument(directThreshold >= 0, "directThreshold must be non-negative: %d",
+                  directThreshold);
+    this.directThreshold = directThreshold;
+  }
+
+  @Override
+  public ByteBuf buffer() {
+    return buffer(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  @Override
+  public ByteBuf buffer(final int initialCapacity) {
+    return initialCapacity < directThreshold
+           ? alloc.heapBuffer(initialCapacity)
+           : alloc.directBuffer(initialCapacity);
+  }
+
+  @Override
+  public ByteBuf buffer(final int initialCapacity, final int maxCapacity) {
+    return initialCapacity < directThreshold
+           ? alloc.heapBuffer(initialCapacity, maxCapacity)
+           : alloc.directBuffer(initialCapacity, maxCapacity);
+  }
+
+  @Override
+  public ByteBuf ioBuffer() {
+    return alloc.ioBuffer();
+  }
+
+  @Override
+  public ByteBuf ioBuffer(final int initialCapacity) {
+    return alloc.ioBuffer(initialCapacity);
+  }
+
+  @Override
+  public ByteBuf ioBuffer(final int initialCapacity, final int maxCapacity) {
+    return alloc.ioBuffer(initialCapacity, maxCapacity);
+  }
+
+  @Override
+  public ByteBuf heapBuffer() {
+    return alloc.heapBuffer();
+  }
+
+  @Override
+  public ByteBuf heapBuffer(final int initialCapacity) {
+    return alloc.heapBuffer(initialCapacity);
+  }
+
+  @Override
+  public ByteBuf heapBuffer(final int initialCapacity, final int maxCapacity) {
+    return alloc.heapBuffer(initialCapacity, maxCapacity);
+  }
+
+  @Override
+  public ByteBuf directBuffer() {
+    return alloc.directBuffer();
+  }
+
+  @Override
+  public ByteBuf directBuffer(final int initialCapacity) {
+    return alloc.directBuffer(initialCapacity);
+  }
+
+  @Override
+  public ByteBuf directBuffer(final int initialCapacity, final int maxCapacity) {
+    return alloc.directBuffer(initialCapacity, maxCapacity);
+  }
+
+  @Override
+  public CompositeByteBuf compositeBuffer() {
+    return alloc.compositeBuffer();
+  }
+
+  @Override
+  public CompositeByteBuf compositeBuffer(final int maxNumComponents) {
+    return alloc.compositeBuffer(maxNumComponents);
+  }
+
+  @Override
+  public CompositeByteBuf compositeHeapBuffer() {
+    return alloc.compositeHeapBuffer();
+  }
+
+  @Override
+  public CompositeByteBuf compositeHeapBuffer(final int maxNumComponents) {
+    return alloc.compositeHeapBuffer(maxNumComponents);
+  }
+
+  @Override
+  public CompositeByteBuf compositeDirectBuffer() {
+    return alloc.compositeDirectBuffer();
+  }
+
+  @Override
+  public CompositeByteBuf compositeDirectBuffer(final int maxNumComponents) {
+    return alloc.compositeDirectBuffer(maxNumComponents);
+  }
+
+  @Override
+  public boolean isDirectBufferPooled() {
+    return alloc.isDirectBufferPooled();
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPSizeClassAllocator{" +
+           "alloc=" + alloc +
+           ", directThreshold=" + directThreshold +
+           '}';
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * A {@link ZMTPDecoder} that delivers frame content in chunks as it arrives instead of buffering
+ * entire frames. This allows applications to e.g. pipe very large frames to disk or to another
+ * channel using a constant amount of memory.
+ *
+ * For each incoming message, the following objects are produced in order:
+ *
+ * <ul>
+ * <li>For each frame, a {@link FrameStart}, followed by zero or more {@link FrameChunk}s with the
+ * frame content, followed by a {@link FrameEnd}.</li>
+ * <li>A {@link MessageEnd}.</li>
+ * </ul>
+ *
+ * The {@link FrameChunk}s must be released by the application.
+ */
+public class ZMTPStreamingDecoder implements ZMTPDecoder {
+
+  public static final Factory FACTORY = new Factory() {
+    @Override
+    public ZMTPDecoder decoder(final ZMTPSession session) {
+      return new ZMTPStreamingDecoder();
+    }
+  };
+
+  private long remaining;
+
+  @Override
+  public void header(final ChannelHandlerContext ctx, final long length, final boolean more,
+                     final List<Object> out) {
+    remaining = length;
+    out.add(new FrameStart(length, more));
+    if (length == 0) {
+      out.add(FrameEnd.INSTANCE);
+    }
+  }
+
+  @Override
+  public void content(final ChannelHandlerContext ctx, final ByteBuf data, final List<Object> out) {
+    final int n = data.readableBytes();
+    if (n == 0) {
+      return;
+    }
+    out.add(new FrameChunk(data.readSlice(n).retain()));
+    remaining -= n;
+    if (remaining == 0) {
+      out.add(FrameEnd.INSTANCE);
+    }
+  }
+
+  @Override
+  public void finish(final ChannelHandlerContext ctx, final List<Object> out) {
+    out.add(MessageEnd.INSTANCE);
+  }
+
+  @Override
+  public void close() {
+    remaining = 0;
+  }
+
+  /**
+   * The start of an incoming frame.
+   */
+  public static class FrameStart {
+
+    private final long length;
+    private final boolean more;
+
+    FrameStart(final long length, final boolean more) {
+      this.length = length;
+      this.more = more;
+    }
+
+    /**
+     * The total length of the frame content.
+     */
+    public long length() {
+      return length;
+    }
+
+    /**
+     * Whether more frames follow this one in the message.
+     */
+    public boolean more() {
+      return more;
+    }
+
+    @Override
+    public String toString() {
+      return "FrameStart{" +
+             "length=" + length +
+             ", more=" + more +
+             '}';
+    }
+  }
+
+  /**
+   * A chunk of incoming frame content.
+   */
+  public static class FrameChunk extends DefaultByteBufHolder {
+
+    FrameChunk(final ByteBuf content) {
+      super(content);
+    }
+
+    @Override
+    public FrameChunk retain() {
+      super.retain();
+      return this;
+    }
+
+    @Override
+    public FrameChunk retain(final int increment) {
+      super.retain(increment);
+      return this;
+    }
+  }
+
+  /**
+   * The end of an incoming frame.
+   */
+  public static class FrameEnd {
+
+    static final FrameEnd INSTANCE = new FrameEnd();
+
+    private FrameEnd() {
+    }
+
+    @Override
+    public String toString() {
+      return "FrameEnd";
+    }
+  }
+
+  /**
+   * The end of an incoming message.
+   */
+  public static class MessageEnd {
+
+    static final MessageEnd INSTANCE = new MessageEnd();
+
+    private MessageEnd() {
+    }
+
+    @Override
+    public String toString() {
+      return "MessageEnd";
+    }
+  }
+}
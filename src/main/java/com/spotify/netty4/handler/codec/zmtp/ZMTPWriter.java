@@ -16,7 +16,11 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import java.nio.ByteBuffer;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 
 import static java.lang.Math.min;
 
@@ -25,23 +29,44 @@ import static java.lang.Math.min;
  */
 public class ZMTPWriter {
 
+  private final ZMTPWireFormat wireFormat;
   private final ZMTPWireFormat.Header header;
 
   private ByteBuf buf;
   private int frameSize;
+  private boolean more;
   private int headerIndex;
   private int contentIndex;
 
-  ZMTPWriter(final ZMTPWireFormat wireFormat) {
-    this(wireFormat.header());
-  }
+  private CompositeByteBuf composite;
+  private int sliceIndex;
+  private boolean appended;
 
-  ZMTPWriter(final ZMTPWireFormat.Header header) {
-    this.header = header;
+  ZMTPWriter(final ZMTPWireFormat wireFormat) {
+    this.wireFormat = wireFormat;
+    this.header = wireFormat.header();
   }
 
   void reset(final ByteBuf buf) {
     this.buf = buf;
+    this.composite = null;
+    this.sliceIndex = buf.readerIndex();
+  }
+
+  /**
+   * Get the output written since the last {@link #reset}. If no content was appended by reference
+   * this is the buffer passed to {@link #reset}, otherwise it is a {@link CompositeByteBuf} of
+   * slices of that buffer interleaved with the appended content.
+   */
+  ByteBuf finish() {
+    if (composite == null) {
+      return buf;
+    }
+    sliceOutput();
+    buf.release();
+    final ByteBuf output = composite;
+    composite = null;
+    return output;
   }
 
   /**
@@ -53,6 +78,8 @@ public class ZMTPWriter {
    */
   public ByteBuf frame(final int size, final boolean more) {
     frameSize = size;
+    this.more = more;
+    appended = false;
     headerIndex = buf.writerIndex();
     header.set(size, size, more);
     header.write(buf);
@@ -60,29 +87,59 @@ public class ZMTPWriter {
     return buf;
   }
 
+  /**
+   * Start a new ZMTP frame of unknown size. The frame must be completed by calling {@link
+   * #endFrame} after writing the payload, which rewrites the header with the actual payload size.
+   * This is useful for variable length serialization, e.g. varints or UTF8, where computing the
+   * exact size up front would take an extra pass over the data.
+   *
+   * The header is initially written in its short form and widened if the payload turns out to be
+   * too large for it, in which case the payload is moved. The corresponding {@link
+   * ZMTPEncoder#estimate} may use an approximate size, as the output buffer grows on demand.
+   *
+   * @param more true if more frames will be written, false if this is the last frame.
+   * @return A {@link ByteBuf} for writing the frame payload.
+   */
+  public ByteBuf frame(final boolean more) {
+    return frame(0, more);
+  }
+
+  /**
+   * Complete a frame started with {@link #frame(boolean)}, setting its size to the number of
+   * payload bytes written.
+   */
+  public void endFrame() {
+    reframe(buf.writerIndex() - contentIndex, more);
+  }
+
   /**
    * Rewrite the ZMTP frame header, optionally writing a different size or changing the MORE flag.
    * This can be useful when writing a payload where estimating the exact size is expensive but an
-   * upper bound can be cheaply computed. E.g. when writing UTF8.
+   * upper or lower bound can be cheaply computed. E.g. when writing UTF8.
    *
-   * @param size New size. This must not be greater than the size provided in the call to {@link
-   *             #frame}.
+   * If the new size is greater than the size provided in the call to {@link #frame}, the frame is
+   * grown. If the header then needs more space, the already written payload is moved to make room
+   * for it.
+   *
+   * @param size New size.
    * @param more true if more frames will be written, false if this is the last frame.
    * @return A {@link ByteBuf} for writing the remainder of the frame payload, if any. The {@link
    * ByteBuf#writerIndex()} will be set to directly after the already written payload, or truncated
    * down to the end of the new smaller payload, if the written payload exceeds the new frame size.
    */
   public ByteBuf reframe(final int size, final boolean more) {
-    if (size > frameSize) {
-      // Although ByteBufs grow (reallocate) dynamically, the header might end up taking more space,
-      // forcing us to move the already written payload. We currently do not implement this.
-      throw new IllegalArgumentException("new frame size is greater than original size");
+    if (appended) {
+      throw new IllegalStateException("cannot reframe a frame with appended content");
     }
     final int mark = buf.writerIndex();
     final int written = mark - contentIndex;
     if (written < 0) {
       throw new IllegalStateException("written < 0");
     }
+    if (size > frameSize) {
+      grow(size, written);
+    }
+    this.more = more;
     final int newIndex = contentIndex + min(written, size);
     buf.writerIndex(headerIndex);
     header.set(frameSize, size, more);
@@ -91,6 +148,82 @@ public class ZMTPWriter {
     return buf;
   }
 
+  /**
+   * Grow the current frame, moving the written payload if the header gets wider.
+   */
+  private void grow(final int size, final int written) {
+    final int shift = headerLength(size) - headerLength(frameSize);
+    frameSize = size;
+    if (shift == 0) {
+      return;
+    }
+    buf.ensureWritable(shift);
+    if (written > 0) {
+      final ByteBuf payload = buf.copy(contentIndex, written);
+      buf.setBytes(contentIndex + shift, payload);
+      payload.release();
+    }
+    contentIndex += shift;
+    buf.writerIndex(contentIndex + written);
+  }
+
+  private int headerLength(final int size) {
+    return wireFormat.frameLength(size) - size;
+  }
+
+  /**
+   * Append content to the current frame by reference, without copying it. The content is counted
+   * towards the payload size provided in the call to {@link #frame}, i.e. a frame can be made up of
+   * a mix of payload written inline into the returned {@link ByteBuf} and appended content. Frames
+   * with appended content cannot be {@link #reframe reframed}.
+   *
+   * When using this method, the corresponding {@link ZMTPEncoder#estimate} should use {@link
+   * ZMTPEstimator#header} rather than {@link ZMTPEstimator#frame} for the frame, as the appended
+   * content does not need to be allocated for.
+   *
+   * @param content The content to append. This method takes over the reference and will release it
+   *                when the output has been written.
+   */
+  public void append(final ByteBuf content) {
+    if (!content.isReadable()) {
+      content.release();
+      return;
+    }
+    if (composite == null) {
+      composite = buf.alloc().compositeBuffer(Integer.MAX_VALUE);
+    }
+    appended = true;
+    sliceOutput();
+    addComponent(content);
+  }
+
+  /**
+   * Append content to the current frame by reference, without copying it. See {@link
+   * #append(ByteBuf)}. The {@link ByteBuffer} must not be modified until the output has been
+   * written.
+   *
+   * @param content The content to append.
+   */
+  public void append(final ByteBuffer content) {
+    append(Unpooled.wrappedBuffer(content));
+  }
+
+  /**
+   * Move the output written to the buffer since the last slice into the composite output.
+   */
+  private void sliceOutput() {
+    final int index = buf.writerIndex();
+    if (index > sliceIndex) {
+      addComponent(buf.slice(sliceIndex, index - sliceIndex).retain());
+      sliceIndex = index;
+    }
+  }
+
+  private void addComponent(final ByteBuf component) {
+    composite.addComponent(component);
+    composite.writerIndex(composite.writerIndex() + component.readableBytes());
+  }
+
   static ZMTPWriter create(final ZMTPVersion version) {
     return new ZMTPWriter(ZMTPWireFormats.wireFormat(version));
   }
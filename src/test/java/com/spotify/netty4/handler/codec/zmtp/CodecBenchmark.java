@@ -17,6 +17,7 @@
 package com.spotify.netty4.handler.codec.zmtp;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Scope;
@@ -27,22 +28,31 @@ import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.ReferenceCountUtil;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP10;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
+import static io.netty.util.CharsetUtil.UTF_8;
 
 // FIXME (dano): this benchmark needs to be in this package because it uses some internals
 
 @State(Scope.Benchmark)
 public class CodecBenchmark {
 
+  private static final int BATCH_SIZE = 16;
+  private static final int SMALL_MESSAGES = 256;
+  private static final byte[] EMPTY = new byte[0];
+
   private final List<Object> out = Lists.newArrayList();
 
   private final ZMTPMessage message = ZMTPMessage.fromUTF8(
@@ -68,6 +78,7 @@ public class CodecBenchmark {
 
   private final ByteBuf incomingZMTP10;
   private final ByteBuf incomingZMTP20;
+  private final ByteBuf incomingSmallZMTP20 = PooledByteBufAllocator.DEFAULT.buffer();
 
   private final ZMTPMessageEncoder encoder = new ZMTPMessageEncoder();
   private final ZMTPWriter writerZMTP10 = ZMTPWriter.create(ZMTP10);
@@ -75,9 +86,63 @@ public class CodecBenchmark {
 
   private final ByteBuf tmp = PooledByteBufAllocator.DEFAULT.buffer(4096);
 
+  private final ZMTPMessage.Builder builder = ZMTPMessage.builder(PooledByteBufAllocator.DEFAULT);
+
+  private final ByteBuf[] frames = {
+      Unpooled.copiedBuffer("first identity frame", UTF_8),
+      Unpooled.copiedBuffer("second identity frame", UTF_8),
+      Unpooled.EMPTY_BUFFER,
+      Unpooled.copiedBuffer("datadatadatadatadatadatadatadatadatadata", UTF_8)};
+
+  private final Map<ByteBuffer, Object> identityTable = Maps.newHashMap();
+  private final Map<ZMTPRoutingKey, Object> routingKeyTable = Maps.newHashMap();
+  private final ByteBuffer identity;
+  private final ZMTPRoutingKey routingKey;
+
+  private final ZMTPConfig handshakeConfig = ZMTPConfig.builder()
+      .socketType(ZMTPSocketType.ROUTER)
+      .build();
+  private final ByteBuf greeting = Unpooled.buffer();
+  private final List<ByteBuf[]> fragmentedGreetings = Lists.newArrayList();
+  private int fragmentedGreeting;
+
+  private final EmbeddedChannel twoPassChannelZMTP20 = encodingChannel(false);
+  private final EmbeddedChannel eagerChannelZMTP20 = encodingChannel(true);
+
   {
     incomingZMTP10 = message.write(PooledByteBufAllocator.DEFAULT, ZMTP10);
     incomingZMTP20 = message.write(PooledByteBufAllocator.DEFAULT, ZMTP20);
+    final ZMTPMessage small = ZMTPMessage.fromUTF8("id", "", "small message payload");
+    for (int i = 0; i < SMALL_MESSAGES; i++) {
+      small.write(incomingSmallZMTP20, ZMTP20);
+    }
+    small.release();
+    for (long i = 0; i < 1024; i++) {
+      final ByteBuffer id = ByteBuffer.allocate(9).put((byte) 0).putLong(i);
+      id.flip();
+      identityTable.put(id, i);
+      routingKeyTable.put(ZMTPRoutingKey.of(id), i);
+    }
+    identity = ByteBuffer.allocate(9).put((byte) 0).putLong(512);
+    identity.flip();
+    routingKey = ZMTPRoutingKey.of(identity);
+    ZMTP20WireFormat.writeGreeting(greeting, ZMTPSocketType.DEALER, UTF_8.encode("id"));
+    try {
+      new Fragmenter(greeting.readableBytes()).fragment(new Fragmenter.Consumer() {
+        @Override
+        public void fragments(final int[] limits, final int count) {
+          final ByteBuf[] fragments = new ByteBuf[count];
+          int start = 0;
+          for (int i = 0; i < count; i++) {
+            fragments[i] = greeting.slice(start, limits[i] - start);
+            start = limits[i];
+          }
+          fragmentedGreetings.add(fragments);
+        }
+      });
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @SuppressWarnings("ForLoopReplaceableByForEach")
@@ -102,6 +167,81 @@ public class CodecBenchmark {
     consumeAndRelease(bh, out);
   }
 
+  @Benchmark
+  public void parsingSmallMessagesZMTP20(final Blackhole bh) throws ZMTPParsingException {
+    messageDecoderZMTP20.decode(null, incomingSmallZMTP20.resetReaderIndex(), out);
+    consumeAndRelease(bh, out);
+  }
+
+  @Benchmark
+  public void creatingMessage(final Blackhole bh) {
+    for (int i = 0; i < frames.length; i++) {
+      frames[i].retain();
+    }
+    final ZMTPMessage message = ZMTPMessage.from(frames);
+    bh.consume(message);
+    message.release();
+  }
+
+  @Benchmark
+  public void creatingMessageFromUTF8(final Blackhole bh) {
+    final ZMTPMessage message = ZMTPMessage.fromUTF8(
+        PooledByteBufAllocator.DEFAULT, "first identity frame", "second identity frame", "",
+        "datadatadatadatadatadatadatadatadatadata");
+    bh.consume(message);
+    message.release();
+  }
+
+  @Benchmark
+  public void buildingMessage(final Blackhole bh) {
+    final ZMTPMessage message = builder
+        .addAscii("first identity frame")
+        .addAscii("second identity frame")
+        .add(EMPTY)
+        .addAscii("datadatadatadatadatadatadatadatadatadata")
+        .build();
+    bh.consume(message);
+    message.release();
+  }
+
+  @Benchmark
+  public Object lookingUpIdentity() {
+    return identityTable.get(identity.asReadOnlyBuffer());
+  }
+
+  @Benchmark
+  public Object lookingUpRoutingKey() {
+    return routingKeyTable.get(routingKey);
+  }
+
+  @Benchmark
+  public void handshakingZMTP20(final Blackhole bh) {
+    handshake(bh, greeting);
+  }
+
+  @Benchmark
+  public void handshakingFragmentedZMTP20(final Blackhole bh) {
+    handshake(bh, fragmentedGreetings.get(fragmentedGreeting));
+    fragmentedGreeting = (fragmentedGreeting + 1) % fragmentedGreetings.size();
+  }
+
+  private void handshake(final Blackhole bh, final ByteBuf... fragments) {
+    final ZMTPCodec codec = ZMTPCodec.from(handshakeConfig);
+    final EmbeddedChannel channel = new EmbeddedChannel(codec);
+    for (final ByteBuf fragment : fragments) {
+      channel.writeInbound(fragment.duplicate().retain());
+    }
+    if (!codec.session().handshakeFuture().isSuccess()) {
+      throw new AssertionError("handshake failed");
+    }
+    channel.finish();
+    Object o;
+    while ((o = channel.readOutbound()) != null) {
+      bh.consume(o);
+      ReferenceCountUtil.release(o);
+    }
+  }
+
   @Benchmark
   public void discardingZMTP10(final Blackhole bh) throws ZMTPParsingException {
     discardingDecoderZMTP10.decode(null, incomingZMTP10.resetReaderIndex(), out);
@@ -128,6 +268,41 @@ public class CodecBenchmark {
     return tmp;
   }
 
+  @Benchmark
+  public void writingTwoPassZMTP20(final Blackhole bh) {
+    writeAndFlush(bh, twoPassChannelZMTP20);
+  }
+
+  @Benchmark
+  public void writingEagerZMTP20(final Blackhole bh) {
+    writeAndFlush(bh, eagerChannelZMTP20);
+  }
+
+  private void writeAndFlush(final Blackhole bh, final EmbeddedChannel channel) {
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      channel.write(message.retain(), channel.voidPromise());
+    }
+    channel.flush();
+    Object o;
+    while ((o = channel.readOutbound()) != null) {
+      bh.consume(o);
+      ReferenceCountUtil.release(o);
+    }
+  }
+
+  private static EmbeddedChannel encodingChannel(final boolean eagerEncoding) {
+    final ZMTPConfig config = ZMTPConfig.builder()
+        .socketType(ZMTPSocketType.DEALER)
+        .eagerEncoding(eagerEncoding)
+        .build();
+    final ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTP20, ZMTPConfig.ANONYMOUS));
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(session, new ZMTPMessageEncoder()));
+    channel.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+    return channel;
+  }
+
   public static void main(final String... args) throws RunnerException, InterruptedException {
     Options opt = new OptionsBuilder()
         .include(".*")
@@ -7,10 +7,14 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
 
 import static com.spotify.netty4.handler.codec.zmtp.Buffers.buf;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.PUB;
@@ -20,9 +24,12 @@ import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.SUB;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP10;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
 import static io.netty.util.CharsetUtil.UTF_8;
+import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -57,6 +64,58 @@ public class HandshakeTest {
                                     0x01, 0x03, 0x00, 3, 0x66, 0x6f, 0x6f)));
   }
 
+  @Test
+  public void testSharedGreeting() {
+    final ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTPProtocols.ZMTP20)
+        .socketType(REQ)
+        .localIdentity(FOO)
+        .interop(false)
+        .build();
+    final ByteBuf a = config.protocol().handshaker(config).greeting();
+    final ByteBuf b = config.protocol().handshaker(config).greeting();
+    assertThat(a, is(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0, 0x7f, 0x01, 0x03, 0x00, 3, 0x66, 0x6f, 0x6f)));
+    assertThat(b, is(a));
+    assertThat(a.isDirect(), is(true));
+
+    // Reading and releasing one greeting does not affect the others
+    a.skipBytes(a.readableBytes());
+    a.release();
+    assertThat(b.readableBytes(), is(17));
+    assertThat(config.protocol().handshaker(config).greeting(), is(b));
+
+    try {
+      b.setByte(0, 0);
+      fail("greeting should be read-only");
+    } catch (ReadOnlyBufferException expected) {
+      // pass
+    }
+  }
+
+  @Test
+  public void testGreetingSharedBetweenConfigs() {
+    final ZMTPConfig.Builder builder = ZMTPConfig.builder()
+        .protocol(ZMTPProtocols.ZMTP20)
+        .socketType(ROUTER)
+        .localIdentity(FOO);
+    final ZMTPConfig interop = builder.interop(true).build();
+    assertThat(builder.interop(true).build().greeting(), is(sameInstance(interop.greeting())));
+    assertThat(interop.greeting().body().isReadable(), is(true));
+
+    final ZMTPConfig plain = builder.interop(false).build();
+    assertThat(plain.greeting(), is(not(sameInstance(interop.greeting()))));
+    assertThat(builder.localIdentity(BAR).build().greeting(),
+               is(not(sameInstance(plain.greeting()))));
+
+    // Without interop the greeting is sent whole, so there is no body
+    try {
+      plain.greeting().body();
+      fail("greeting should have no body");
+    } catch (IllegalStateException expected) {
+      // pass
+    }
+  }
+
   @Test
   public void test1to1Handshake() throws Exception {
     final ZMTP10Protocol.Handshaker h = new ZMTP10Protocol.Handshaker(FOO);
@@ -77,6 +136,20 @@ public class HandshakeTest {
     assertEquals(ZMTPHandshake.of(ZMTP10, BAR, null), handshake);
   }
 
+  @Test
+  public void test2InteropTo1FragmentedHandshake() throws Exception {
+    ZMTPHandshaker h = new ZMTP20Protocol.Handshaker(ROUTER, FOO, true);
+    final ByteBuf in = Unpooled.buffer().writeBytes(buf(0x04, 0x00));
+    assertThat(h.handshake(in, ctx), is(nullValue()));
+    in.writeBytes(buf(0x62, 0x61, 0x72));
+    ZMTPHandshake handshake = h.handshake(in, ctx);
+    assertThat(handshake, is(notNullValue()));
+    // The identity is only sent once
+    verify(ctx).writeAndFlush(buf(0x66, 0x6f, 0x6f));
+    verifyNoMoreInteractions(ctx);
+    assertEquals(ZMTPHandshake.of(ZMTP10, BAR, null), handshake);
+  }
+
   @Test
   public void test2InteropTo2InteropHandshake() throws Exception {
     ZMTPHandshaker h = new ZMTP20Protocol.Handshaker(PUB, FOO, true);
@@ -111,14 +184,12 @@ public class HandshakeTest {
     ZMTPHandshaker h = new ZMTP20Protocol.Handshaker(PUB, FOO, false);
     assertThat(h.greeting(), is(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0, 0x7f, 0x1, 0x1, 0, 0x3, 0x66, 0x6f, 0x6f)));
 
-    try {
-      h.handshake(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x4, 0x7f), ctx);
-      fail("not enough data in greeting (because compat mode) should have thrown exception");
-    } catch (IndexOutOfBoundsException e) {
-      // expected
-    }
-    ZMTPHandshake handshake = h.handshake(
-        buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x4, 0x7f, 0x1, 0x1, 0, 0x03, 0x62, 0x61, 0x72), ctx);
+    // not enough data in greeting (because compat mode)
+    final ByteBuf in = Unpooled.buffer().writeBytes(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x4, 0x7f));
+    assertThat(h.handshake(in, ctx), is(nullValue()));
+    assertThat(in.readerIndex(), is(0));
+    in.writeBytes(buf(0x1, 0x1, 0, 0x03, 0x62, 0x61, 0x72));
+    ZMTPHandshake handshake = h.handshake(in, ctx);
     assertThat(handshake, is(notNullValue()));
     assertEquals(ZMTPHandshake.of(ZMTPVersion.ZMTP20, BAR, PUB), handshake);
   }
@@ -182,19 +253,54 @@ public class HandshakeTest {
   }
 
   @Test
-  public void testDetectProtocolVersion() {
-    try {
-      ZMTP20WireFormat.detectProtocolVersion(Unpooled.wrappedBuffer(new byte[0]));
-      fail("Should have thrown IndexOutOfBoundsException");
-    } catch (IndexOutOfBoundsException e) {
-      // ignore
-    }
-    try {
-      ZMTP20WireFormat.detectProtocolVersion(buf(0xff, 0, 0, 0));
-      fail("Should have thrown IndexOutOfBoundsException");
-    } catch (IndexOutOfBoundsException e) {
-      // ignore
+  public void testFragmentedHandshake() throws Exception {
+    final ByteBuf greeting = buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0, 0x7f, 0x1, 0x1, 0, 0x01, 0x62);
+    final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    final ChannelHandlerContext ctx = channel.pipeline().firstContext();
+    final ByteBuf in = Unpooled.buffer();
+    for (final boolean interop : asList(false, true)) {
+      final ZMTPConfig config = ZMTPConfig.builder()
+          .protocol(ZMTPProtocols.ZMTP20)
+          .socketType(PUB)
+          .localIdentity(FOO)
+          .interop(interop)
+          .build();
+      new Fragmenter(greeting.readableBytes()).fragment(new Fragmenter.Consumer() {
+        @Override
+        public void fragments(final int[] limits, final int count) throws Exception {
+          final ZMTPHandshaker h = config.protocol().handshaker(config);
+          in.clear();
+          ZMTPHandshake handshake = null;
+          int start = 0;
+          for (int i = 0; i < count; i++) {
+            assertThat(handshake, is(nullValue()));
+            in.writeBytes(greeting, start, limits[i] - start);
+            start = limits[i];
+            // Call repeatedly while input is consumed, like ByteToMessageDecoder
+            int readable;
+            do {
+              readable = in.readableBytes();
+              handshake = h.handshake(in, ctx);
+            } while (handshake == null && in.readableBytes() != readable);
+          }
+          assertEquals(ZMTPHandshake.of(ZMTPVersion.ZMTP20, UTF_8.encode("b"), PUB), handshake);
+          assertThat(in.readableBytes(), is(0));
+          Object o;
+          while ((o = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(o);
+          }
+        }
+      });
     }
+  }
+
+  @Test
+  public void testDetectProtocolVersion() {
+    assertThat(ZMTP20WireFormat.detectProtocolVersion(Unpooled.wrappedBuffer(new byte[0])),
+               is(nullValue()));
+    final ByteBuf partial = buf(0xff, 0, 0, 0);
+    assertThat(ZMTP20WireFormat.detectProtocolVersion(partial), is(nullValue()));
+    assertThat(partial.readerIndex(), is(0));
 
     assertEquals(ZMTP10, ZMTP20WireFormat.detectProtocolVersion(buf(0x07)));
     assertEquals(ZMTP10, ZMTP20WireFormat
@@ -27,7 +27,7 @@ public class ZMTP10WireFormatTest {
   }
 
   @Test
-  public void testLongFrameLengthMissingLong() {
+  public void testLongFrameLengthMissingLong() throws Exception {
     final ByteBuf buffer = Unpooled.buffer();
     buffer.writeByte(0xFF);
     final long size = ZMTP10WireFormat.readLength(buffer);
@@ -35,7 +35,7 @@ public class ZMTP10WireFormatTest {
   }
 
   @Test
-  public void testLongFrameLengthWithLong() {
+  public void testLongFrameLengthWithLong() throws Exception {
     final ByteBuf buffer = Unpooled.buffer();
     buffer.writeByte(0xFF);
     buffer.writeLong(4);
@@ -44,7 +44,7 @@ public class ZMTP10WireFormatTest {
   }
 
   @Test
-  public void testFrameLengthEmptyBuffer() {
+  public void testFrameLengthEmptyBuffer() throws Exception {
     final ByteBuf buffer = Unpooled.buffer();
     final long size = ZMTP10WireFormat.readLength(buffer);
     assertThat("Empty buffer should return -1 frame length", size, is(-1L));
@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ReadOnlyBufferException;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+
+import static com.spotify.netty4.handler.codec.zmtp.Buffers.bytes;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPConfig.ANONYMOUS;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static io.netty.util.CharsetUtil.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ZMTPFramingDecoderTest {
+
+  private static final String LARGE = Strings.repeat("0123456789", 10000);
+
+  private EmbeddedChannel channel;
+
+  @After
+  public void tearDown() {
+    if (channel != null) {
+      channel.finish();
+    }
+  }
+
+  @Test
+  public void testCompositeCumulation() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER)
+                          .compositeCumulation(true), new ZMTPMessageDecoder());
+
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("id0", "", LARGE);
+    final ByteBuf wire = message.write(ZMTPVersion.ZMTP20);
+    message.release();
+
+    // Deliver the message in many small reads
+    while (wire.isReadable()) {
+      channel.writeInbound(wire.readBytes(Math.min(1000, wire.readableBytes())));
+    }
+    wire.release();
+
+    final ZMTPMessage received = (ZMTPMessage) channel.readInbound();
+    assertThat(received, is(ZMTPMessage.fromUTF8("id0", "", LARGE)));
+    assertThat(channel.readInbound(), is(nullValue()));
+    received.release();
+  }
+
+  @Test
+  public void testCompositeCumulationDoesNotConsolidate() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER)
+                          .compositeCumulation(true), new ZMTPMessageDecoder());
+
+    final ZMTPMessage message = ZMTPMessage.fromUTF8(LARGE);
+    final ByteBuf wire = message.write(ZMTPVersion.ZMTP20);
+    message.release();
+
+    // Deliver the frame in far more reads than a default composite buffer holds
+    int reads = 0;
+    while (wire.isReadable()) {
+      channel.writeInbound(wire.readBytes(Math.min(1000, wire.readableBytes())));
+      reads++;
+    }
+    wire.release();
+
+    final ZMTPMessage received = (ZMTPMessage) channel.readInbound();
+    assertThat(received, is(ZMTPMessage.fromUTF8(LARGE)));
+
+    // The frame should still be a view of every read, not a consolidated copy
+    ByteBuf buf = received.frame(0);
+    while (!(buf instanceof CompositeByteBuf)) {
+      buf = buf.unwrap();
+      assertThat(buf, is(notNullValue()));
+    }
+    assertThat(((CompositeByteBuf) buf).numComponents(), is(reads));
+    received.release();
+  }
+
+  @Test(expected = ReadOnlyBufferException.class)
+  public void testCompositeCumulationReadOnlyContent() throws Throwable {
+    final EmbeddedChannel channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER)
+                          .compositeCumulation(true), new WritingDecoder());
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("hello");
+    try {
+      channel.writeInbound(message.write(ZMTPVersion.ZMTP20));
+    } catch (Exception e) {
+      throw e.getCause();
+    } finally {
+      message.release();
+    }
+  }
+
+  @Test
+  public void testMaxFrameSize() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER)
+                          .maxFrameSize(10), new ZMTPMessageDecoder());
+    try {
+      channel.writeInbound(Unpooled.wrappedBuffer(bytes(0, 11)));
+      fail();
+    } catch (DecoderException e) {
+      assertThat(e.getCause(), is(instanceOf(ZMTPParsingException.class)));
+    }
+    channel = null;
+  }
+
+  @Test
+  public void testFrameLengthOverflow() throws Exception {
+    // A long frame of 2^32 + 5 bytes, which would be misframed as 5 bytes if truncated to an int
+    final byte[] frame = bytes(2, 0, 0, 0, 1, 0, 0, 0, 5, 1, 2, 3, 4, 5);
+    for (final ZMTPDecoder decoder : asList(new ZMTPMessageDecoder(),
+                                            new ZMTPFlatMessageDecoder())) {
+      channel = channel(ZMTPConfig.builder()
+                            .socketType(DEALER), decoder);
+      try {
+        channel.writeInbound(Unpooled.wrappedBuffer(frame));
+        fail();
+      } catch (DecoderException e) {
+        assertThat(e.getCause(), is(instanceOf(ZMTPParsingException.class)));
+      }
+    }
+    channel = null;
+  }
+
+  @Test
+  public void testNegativeFrameLength() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER), new ZMTPMessageDecoder());
+    try {
+      channel.writeInbound(Unpooled.wrappedBuffer(bytes(2, 0xff, 0, 0, 0, 0, 0, 0, 0)));
+      fail();
+    } catch (DecoderException e) {
+      assertThat(e.getCause(), is(instanceOf(ZMTPParsingException.class)));
+    }
+    channel = null;
+  }
+
+  @Test
+  public void testDiscardOversizedMessages() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER)
+                          .maxMessageSize(10)
+                          .discardOversizedMessages(true), new ZMTPMessageDecoder());
+    final List<Object> events = Lists.newArrayList();
+    channel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+      @Override
+      public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) {
+        events.add(evt);
+      }
+    });
+
+    final ZMTPMessage large = ZMTPMessage.fromUTF8("01234", "56789", "abcde", "fghij");
+    final ZMTPMessage small = ZMTPMessage.fromUTF8("01234", "56789");
+    final ByteBuf wire = Unpooled.buffer();
+    large.write(wire, ZMTPVersion.ZMTP20);
+    small.write(wire, ZMTPVersion.ZMTP20);
+    large.release();
+
+    // Deliver the messages in small reads
+    while (wire.isReadable()) {
+      channel.writeInbound(wire.readBytes(Math.min(3, wire.readableBytes())));
+    }
+    wire.release();
+
+    assertThat(events, hasSize(1));
+    final ZMTPMessageTooLarge event = (ZMTPMessageTooLarge) events.get(0);
+    assertThat(event.frameLength(), is(5L));
+    assertThat(event.messageLength(), is(15L));
+
+    final ZMTPMessage received = (ZMTPMessage) channel.readInbound();
+    assertThat(received, is(small));
+    assertThat(channel.readInbound(), is(nullValue()));
+    received.release();
+    small.release();
+  }
+
+  @Test
+  public void testShortAndLongFrames() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER), new ZMTPMessageDecoder());
+
+    final ZMTPMessage small = ZMTPMessage.fromUTF8("id0", "", "small");
+    final ZMTPMessage large = ZMTPMessage.fromUTF8("id1", "", LARGE);
+    final ByteBuf wire = Unpooled.buffer();
+    for (int i = 0; i < 4; i++) {
+      small.write(wire, ZMTPVersion.ZMTP20);
+      large.write(wire, ZMTPVersion.ZMTP20);
+    }
+
+    // Deliver the messages in reads that split both short and long frames
+    while (wire.isReadable()) {
+      channel.writeInbound(wire.readBytes(Math.min(4093, wire.readableBytes())));
+    }
+    wire.release();
+
+    for (int i = 0; i < 4; i++) {
+      final ZMTPMessage receivedSmall = (ZMTPMessage) channel.readInbound();
+      assertThat(receivedSmall, is(small));
+      receivedSmall.release();
+      final ZMTPMessage receivedLarge = (ZMTPMessage) channel.readInbound();
+      assertThat(receivedLarge, is(large));
+      receivedLarge.release();
+    }
+    assertThat(channel.readInbound(), is(nullValue()));
+    small.release();
+    large.release();
+  }
+
+  @Test
+  public void testBatchedDelivery() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER)
+                          .batchedDelivery(true), new ZMTPMessageDecoder());
+
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("id0", "", "hello");
+    final ByteBuf wire = Unpooled.buffer();
+    for (int i = 0; i < 5; i++) {
+      message.write(wire, ZMTPVersion.ZMTP20);
+    }
+
+    // Three complete messages and part of the fourth in the first read
+    final int split = wire.readableBytes() * 7 / 10;
+    channel.writeInbound(wire.readBytes(split));
+    channel.writeInbound(wire.readBytes(wire.readableBytes()));
+    wire.release();
+
+    final ZMTPMessageBatch first = (ZMTPMessageBatch) channel.readInbound();
+    assertThat(first.size(), is(3));
+    final ZMTPMessageBatch second = (ZMTPMessageBatch) channel.readInbound();
+    assertThat(second.size(), is(2));
+    assertThat(channel.readInbound(), is(nullValue()));
+
+    final ZMTPMessage received = (ZMTPMessage) first.get(0);
+    assertThat(received, is(message));
+    received.retain();
+    first.release();
+    second.release();
+    assertThat(received.refCnt(), is(1));
+    received.release();
+    message.release();
+  }
+
+  @Test
+  public void testMessageFilter() throws Exception {
+    final ZMTPMessageFilter filter = new ZMTPMessageFilter() {
+      @Override
+      public int prefixLength() {
+        return 2;
+      }
+
+      @Override
+      public boolean accept(final ByteBuf prefix, final long length, final boolean more) {
+        return prefix.toString(UTF_8).startsWith("a.");
+      }
+    };
+
+    final List<ZMTPMessage> messages = Lists.newArrayList(
+        ZMTPMessage.fromUTF8("b.1", "skipped"),
+        ZMTPMessage.fromUTF8("a.1", "accepted"),
+        ZMTPMessage.fromUTF8("b"),
+        ZMTPMessage.fromUTF8("a.2"),
+        ZMTPMessage.fromUTF8("b." + LARGE, "skipped", LARGE),
+        ZMTPMessage.fromUTF8("a." + LARGE, "accepted"));
+    final ByteBuf wire = Unpooled.buffer();
+    for (final ZMTPMessage message : messages) {
+      message.write(wire, ZMTPVersion.ZMTP20);
+    }
+
+    // Deliver the messages both in a single read and in reads that split frames and prefixes
+    for (final int readSize : new int[]{wire.readableBytes(), 7}) {
+      final EmbeddedChannel channel = channel(ZMTPConfig.builder()
+                                                  .socketType(DEALER)
+                                                  .messageFilter(filter),
+                                              new ZMTPMessageDecoder());
+      final ByteBuf in = wire.duplicate();
+      while (in.isReadable()) {
+        channel.writeInbound(in.readBytes(Math.min(readSize, in.readableBytes())));
+      }
+      for (final int i : new int[]{1, 3, 5}) {
+        final ZMTPMessage received = (ZMTPMessage) channel.readInbound();
+        assertThat(received, is(messages.get(i)));
+        received.release();
+      }
+      assertThat(channel.readInbound(), is(nullValue()));
+      channel.finish();
+    }
+    wire.release();
+    for (final ZMTPMessage message : messages) {
+      message.release();
+    }
+  }
+
+  @Test
+  public void testFlatMessages() throws Exception {
+    final List<ZMTPMessage> messages = Lists.newArrayList(
+        ZMTPMessage.fromUTF8("id0", "id1", "", "hello"),
+        ZMTPMessage.fromUTF8("id0", "", LARGE),
+        ZMTPMessage.fromUTF8(""));
+    final ByteBuf wire = Unpooled.buffer();
+    for (final ZMTPMessage message : messages) {
+      message.write(wire, ZMTPVersion.ZMTP20);
+    }
+
+    // Deliver the messages both in a single read and in reads that split frames
+    for (final int readSize : new int[]{wire.readableBytes(), 97}) {
+      final EmbeddedChannel channel = channel(ZMTPConfig.builder()
+                                                  .socketType(DEALER),
+                                              new ZMTPFlatMessageDecoder());
+      final ByteBuf in = wire.duplicate();
+      while (in.isReadable()) {
+        channel.writeInbound(in.readBytes(Math.min(readSize, in.readableBytes())));
+      }
+      for (final ZMTPMessage message : messages) {
+        final ZMTPFlatMessage received = (ZMTPFlatMessage) channel.readInbound();
+        assertThat(received.size(), is(message.size()));
+        for (int i = 0; i < message.size(); i++) {
+          assertThat(received.frameLength(i), is(message.frame(i).readableBytes()));
+          assertThat(received.frame(i), is(message.frame(i)));
+        }
+        final ZMTPMessage copy = received.toMessage();
+        received.release();
+        assertThat(copy, is(message));
+        copy.release();
+      }
+      assertThat(channel.readInbound(), is(nullValue()));
+      channel.finish();
+    }
+    wire.release();
+    for (final ZMTPMessage message : messages) {
+      message.release();
+    }
+  }
+
+  @Test
+  public void testRecvByteBufAllocator() throws Exception {
+    final ZMTPRecvByteBufAllocator allocator = new ZMTPRecvByteBufAllocator(
+        new FixedRecvByteBufAllocator(1024), 64 * 1024);
+    final RecvByteBufAllocator.Handle handle = allocator.newHandle();
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER), new ZMTPMessageDecoder(), allocator);
+    assertThat(handle.guess(), is(1024));
+
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("id0", "", LARGE);
+    final ByteBuf wire = message.write(ZMTPVersion.ZMTP20);
+    message.release();
+
+    // Headers of the first two frames and the long header and first 1000 bytes of the third
+    final int headers = 5 + 2 + 9;
+    channel.writeInbound(wire.readBytes(headers + 1000));
+    assertThat(handle.guess(), is(64 * 1024));
+    channel.writeInbound(wire.readBytes(LARGE.length() - 50000));
+    assertThat(handle.guess(), is(49000));
+    final ByteBuf buf = handle.allocate(UnpooledByteBufAllocator.DEFAULT);
+    assertThat(buf.capacity(), is(49000));
+    buf.release();
+    channel.writeInbound(wire.readBytes(wire.readableBytes()));
+    assertThat(handle.guess(), is(1024));
+    wire.release();
+
+    final ZMTPMessage received = (ZMTPMessage) channel.readInbound();
+    assertThat(received, is(ZMTPMessage.fromUTF8("id0", "", LARGE)));
+    received.release();
+  }
+
+  @Test
+  public void testStreamingDecoder() throws Exception {
+    channel = channel(ZMTPConfig.builder()
+                          .socketType(DEALER), new ZMTPStreamingDecoder());
+
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("id0", "", LARGE);
+    final ByteBuf wire = message.write(ZMTPVersion.ZMTP20);
+    message.release();
+
+    // Deliver the message in many small reads
+    while (wire.isReadable()) {
+      channel.writeInbound(wire.readBytes(Math.min(1000, wire.readableBytes())));
+    }
+    wire.release();
+
+    final List<String> frames = Lists.newArrayList();
+    final StringBuilder frame = new StringBuilder();
+    Object o;
+    while ((o = channel.readInbound()) != null) {
+      if (o instanceof ZMTPStreamingDecoder.FrameStart) {
+        assertThat(frame.length(), is(0));
+        final ZMTPStreamingDecoder.FrameStart start = (ZMTPStreamingDecoder.FrameStart) o;
+        assertThat(start.more(), is(frames.size() < 2));
+      } else if (o instanceof ZMTPStreamingDecoder.FrameChunk) {
+        final ZMTPStreamingDecoder.FrameChunk chunk = (ZMTPStreamingDecoder.FrameChunk) o;
+        assertThat(chunk.content().readableBytes(), is(lessThanOrEqualTo(1000)));
+        frame.append(chunk.content().toString(UTF_8));
+        chunk.release();
+      } else if (o instanceof ZMTPStreamingDecoder.FrameEnd) {
+        frames.add(frame.toString());
+        frame.setLength(0);
+      } else {
+        assertThat(o, is(instanceOf(ZMTPStreamingDecoder.MessageEnd.class)));
+        assertThat(channel.readInbound(), is(nullValue()));
+      }
+    }
+
+    assertThat(frames, contains("id0", "", LARGE));
+  }
+
+  private static EmbeddedChannel channel(final ZMTPConfig.Builder config,
+                                         final ZMTPDecoder decoder) {
+    return channel(config, decoder, null);
+  }
+
+  private static EmbeddedChannel channel(final ZMTPConfig.Builder config,
+                                         final ZMTPDecoder decoder,
+                                         final RecvByteBufAllocator allocator) {
+    final ZMTPSession session = new ZMTPSession(config.build());
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    if (allocator != null) {
+      channel.config().setRecvByteBufAllocator(allocator);
+    }
+    channel.pipeline().addFirst(new ZMTPFramingDecoder(session, decoder));
+    return channel;
+  }
+
+  private static class WritingDecoder implements ZMTPDecoder {
+
+    @Override
+    public void header(final ChannelHandlerContext ctx, final long length, final boolean more,
+                       final List<Object> out) {
+    }
+
+    @Override
+    public void content(final ChannelHandlerContext ctx, final ByteBuf data,
+                        final List<Object> out) {
+      data.setByte(data.readerIndex(), 0);
+    }
+
+    @Override
+    public void finish(final ChannelHandlerContext ctx, final List<Object> out) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -12,10 +12,14 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.concurrent.EventExecutor;
 
 import static com.spotify.netty4.handler.codec.zmtp.Buffers.buf;
@@ -25,9 +29,19 @@ import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP10;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP20;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
 import static io.netty.util.CharsetUtil.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -37,6 +51,7 @@ public class ZMTPFramingEncoderTest {
 
   @Mock ChannelHandlerContext ctx;
   @Mock ChannelPromise promise;
+  @Mock ChannelPromise voidPromise;
   @Mock EventExecutor executor;
 
   @Captor ArgumentCaptor<ByteBuf> bufCaptor;
@@ -48,6 +63,7 @@ public class ZMTPFramingEncoderTest {
     when(ctx.write(bufCaptor.capture(), any(ChannelPromise.class))).thenReturn(promise);
     when(ctx.alloc()).thenReturn(ByteBufAllocator.DEFAULT);
     when(ctx.executor()).thenReturn(executor);
+    when(ctx.voidPromise()).thenReturn(voidPromise);
   }
 
   @Test
@@ -126,4 +142,543 @@ public class ZMTPFramingEncoderTest {
     buf.release();
     buf2.release();
   }
+
+  @Test
+  public void testEncodeZMTP2ZeroCopy() throws Exception {
+    final ByteBuf large = Unpooled.copiedBuffer(LARGE_FILL, UTF_8);
+    ZMTPMessage message = ZMTPMessage.from(new ByteBuf[]{
+        Unpooled.copiedBuffer("id0", UTF_8), Unpooled.EMPTY_BUFFER, large});
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeBytes(bytes(1, 3, 0x69, 0x64, 0x30,
+                         1, 0,
+                         2, 0, 0, 0, 0, 0, 0, 0x01, 0xf4));
+    buf.writeBytes(LARGE_FILL.getBytes(UTF_8));
+
+    ZMTPFramingEncoder enc = zmtp20Encoder(new ZMTPMessageEncoder(256));
+
+    enc.write(ctx, message, promise);
+    enc.flush(ctx);
+    final ByteBuf buf2 = bufCaptor.getValue();
+
+    assertThat(buf2, is(instanceOf(CompositeByteBuf.class)));
+    assertThat(buf, is(buf2));
+
+    // The large frame is referenced by the output rather than copied
+    assertThat(large.refCnt(), is(1));
+
+    buf.release();
+    buf2.release();
+    assertThat(large.refCnt(), is(0));
+  }
+
+  @Test
+  public void testVoidPromises() throws Exception {
+    ZMTPFramingEncoder enc = zmtp20Encoder(new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "a"), voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "b"), voidPromise);
+    enc.flush(ctx);
+
+    verify(ctx).write(any(ByteBuf.class), same(voidPromise));
+    bufCaptor.getValue().release();
+  }
+
+  @Test
+  public void testAggregatePromise() throws Exception {
+    final ChannelPromise p1 = mock(ChannelPromise.class);
+    final ChannelPromise p2 = mock(ChannelPromise.class);
+    final ArgumentCaptor<ChannelFutureListener> listener =
+        ArgumentCaptor.forClass(ChannelFutureListener.class);
+    when(p2.setUncancellable()).thenReturn(true);
+    when(p2.addListener(listener.capture())).thenReturn(p2);
+
+    ZMTPFramingEncoder enc = zmtp20Encoder(new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "a"), p1);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "b"), voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "c"), p2);
+    enc.flush(ctx);
+
+    // The last promise carries the write, without allocating an aggregate promise
+    verify(ctx).write(any(ByteBuf.class), same(p2));
+    verify(ctx, never()).newPromise();
+    bufCaptor.getValue().release();
+
+    listener.getValue().operationComplete(p2);
+    verify(p1).trySuccess();
+    verify(p2, never()).trySuccess();
+  }
+
+  @Test
+  public void testAggregatePromiseCancelled() throws Exception {
+    final ChannelPromise aggregate = mock(ChannelPromise.class);
+    final ChannelPromise p1 = mock(ChannelPromise.class);
+    final ChannelPromise p2 = mock(ChannelPromise.class);
+    final ArgumentCaptor<ChannelFutureListener> listener =
+        ArgumentCaptor.forClass(ChannelFutureListener.class);
+    when(p2.setUncancellable()).thenReturn(false);
+    when(ctx.newPromise()).thenReturn(aggregate);
+    when(aggregate.addListener(listener.capture())).thenReturn(aggregate);
+
+    ZMTPFramingEncoder enc = zmtp20Encoder(new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "a"), p1);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "b"), voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "c"), p2);
+    enc.flush(ctx);
+
+    verify(ctx).write(any(ByteBuf.class), same(aggregate));
+    bufCaptor.getValue().release();
+
+    listener.getValue().operationComplete(aggregate);
+    verify(p1).trySuccess();
+    verify(p2).trySuccess();
+  }
+
+  @Test
+  public void testChunkedFlush() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .maxChunkSize(10)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+
+    ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "abc"), voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "def"), voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "ghi"), voidPromise);
+    enc.flush(ctx);
+
+    verify(ctx, times(2)).flush();
+    assertThat(bufCaptor.getAllValues(), hasSize(2));
+    final ByteBuf first = bufCaptor.getAllValues().get(0);
+    final ByteBuf second = bufCaptor.getAllValues().get(1);
+    assertThat(first, is(buf(0, 3, 0x61, 0x62, 0x63,
+                             0, 3, 0x64, 0x65, 0x66)));
+    assertThat(second, is(buf(0, 3, 0x67, 0x68, 0x69)));
+    first.release();
+    second.release();
+  }
+
+  @Test
+  public void testHighWaterMarkDropNewest() throws Exception {
+    final ChannelPromise p1 = mock(ChannelPromise.class);
+    final ChannelPromise p2 = mock(ChannelPromise.class);
+    ZMTPFramingEncoder enc = highWaterMarkEncoder(ZMTPHighWaterMarkPolicy.DROP_NEWEST);
+
+    final ZMTPMessage dropped = ZMTPMessage.fromUTF8(ALLOC, "b");
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "a"), p1);
+    enc.write(ctx, dropped, p2);
+
+    verify(p2).trySuccess();
+    assertThat(dropped.refCnt(), is(0));
+    verify(ctx).fireUserEventTriggered(isA(ZMTPHighWaterMarkReached.class));
+
+    enc.flush(ctx);
+    assertThat(bufCaptor.getValue(), is(buf(0, 1, 0x61)));
+    bufCaptor.getValue().release();
+    verify(ctx).fireUserEventTriggered(isA(ZMTPHighWaterMarkCleared.class));
+  }
+
+  @Test
+  public void testHighWaterMarkDropOldest() throws Exception {
+    final ChannelPromise p1 = mock(ChannelPromise.class);
+    final ChannelPromise p2 = mock(ChannelPromise.class);
+    ZMTPFramingEncoder enc = highWaterMarkEncoder(ZMTPHighWaterMarkPolicy.DROP_OLDEST);
+
+    final ZMTPMessage dropped = ZMTPMessage.fromUTF8(ALLOC, "a");
+    enc.write(ctx, dropped, p1);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "b"), p2);
+
+    verify(p1).trySuccess();
+    assertThat(dropped.refCnt(), is(0));
+
+    enc.flush(ctx);
+    verify(ctx).write(any(ByteBuf.class), same(p2));
+    assertThat(bufCaptor.getValue(), is(buf(0, 1, 0x62)));
+    bufCaptor.getValue().release();
+  }
+
+  @Test
+  public void testHighWaterMarkDropOldestWhileFlushing() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .maxChunkSize(10)
+        .sendHighWaterMark(3)
+        .highWaterMarkPolicy(ZMTPHighWaterMarkPolicy.DROP_OLDEST)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(session, new ZMTPMessageEncoder()));
+
+    // Write more messages when the first chunk has been flushed, pushing out the oldest pending one
+    final ChannelPromise p1 = channel.newPromise();
+    p1.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(final ChannelFuture future) {
+        channel.write(ZMTPMessage.fromUTF8(ALLOC, "x"));
+        channel.write(ZMTPMessage.fromUTF8(ALLOC, "y"));
+        channel.write(ZMTPMessage.fromUTF8(ALLOC, "z"));
+      }
+    });
+    final ZMTPMessage dropped = ZMTPMessage.fromUTF8(ALLOC, "ghi");
+    final ChannelPromise p3 = channel.newPromise();
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "abc"), p1);
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "def"));
+    channel.write(dropped, p3);
+    channel.flush();
+
+    assertThat(p1.isSuccess(), is(true));
+    assertThat(p3.isSuccess(), is(true));
+    assertThat(dropped.refCnt(), is(0));
+    final ByteBuf out = Unpooled.buffer();
+    ByteBuf b;
+    while ((b = (ByteBuf) channel.readOutbound()) != null) {
+      out.writeBytes(b);
+      b.release();
+    }
+    assertThat(out, is(buf(0, 3, 0x61, 0x62, 0x63,
+                           0, 3, 0x64, 0x65, 0x66,
+                           0, 1, 0x78,
+                           0, 1, 0x79,
+                           0, 1, 0x7a)));
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testHighWaterMarkFail() throws Exception {
+    final ChannelPromise p1 = mock(ChannelPromise.class);
+    final ChannelPromise p2 = mock(ChannelPromise.class);
+    ZMTPFramingEncoder enc = highWaterMarkEncoder(ZMTPHighWaterMarkPolicy.FAIL);
+
+    final ZMTPMessage rejected = ZMTPMessage.fromUTF8(ALLOC, "b");
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "a"), p1);
+    enc.write(ctx, rejected, p2);
+
+    verify(p2).tryFailure(isA(ZMTPHighWaterMarkException.class));
+    assertThat(rejected.refCnt(), is(0));
+
+    enc.flush(ctx);
+    verify(ctx).write(any(ByteBuf.class), same(p1));
+    bufCaptor.getValue().release();
+  }
+
+  @Test
+  public void testEagerHighWaterMarkFail() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .eagerEncoding(true)
+        .sendHighWaterMark(2)
+        .highWaterMarkPolicy(ZMTPHighWaterMarkPolicy.FAIL)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(session, new ZMTPMessageEncoder()));
+
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"));
+    final ChannelFuture rejected = channel.write(ZMTPMessage.fromUTF8(ALLOC, "c"));
+
+    // Encoded messages are no longer queued, but still count as pending
+    assertThat(rejected.cause(), is(instanceOf(ZMTPHighWaterMarkException.class)));
+    assertThat(rejected.cause().getMessage(), containsString("2 messages"));
+
+    channel.flush();
+    final ByteBuf buf = (ByteBuf) channel.readOutbound();
+    assertThat(buf, is(buf(0, 1, 0x61, 0, 1, 0x62)));
+    buf.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testHandlerRemovedFailsPendingMessages() throws Exception {
+    for (final boolean eager : asList(false, true)) {
+      ZMTPConfig config = ZMTPConfig.builder()
+          .protocol(ZMTP20)
+          .socketType(DEALER)
+          .eagerEncoding(eager)
+          .build();
+      ZMTPSession session = new ZMTPSession(config);
+      session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+      final ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+      final EmbeddedChannel channel = new EmbeddedChannel(enc);
+
+      final ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "a");
+      final ChannelFuture f1 = channel.write(message);
+      final ChannelFuture f2 = channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"));
+      channel.pipeline().remove(enc);
+
+      assertThat(message.refCnt(), is(0));
+      assertThat(f1.cause(), is(instanceOf(ZMTPException.class)));
+      assertThat(f2.cause(), is(instanceOf(ZMTPException.class)));
+      assertThat(channel.finish(), is(false));
+    }
+  }
+
+  @Test
+  public void testHighWaterMarkBlock() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .sendHighWaterMark(2)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(session, new ZMTPMessageEncoder()));
+
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"));
+    assertThat(channel.isWritable(), is(true));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"));
+    assertThat(channel.isWritable(), is(false));
+
+    channel.flush();
+    assertThat(channel.isWritable(), is(true));
+    final ByteBuf buf = (ByteBuf) channel.readOutbound();
+    assertThat(buf, is(buf(0, 1, 0x61, 0, 1, 0x62)));
+    buf.release();
+  }
+
+  @Test
+  public void testHighWaterMarkBlockHandlerRemoved() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .sendHighWaterMark(2)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+    final ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+    EmbeddedChannel channel = new EmbeddedChannel(enc);
+
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"));
+    assertThat(channel.isWritable(), is(false));
+
+    // Dropping the pending messages clears the high water mark
+    channel.pipeline().remove(enc);
+    assertThat(channel.isWritable(), is(true));
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testEagerEncoding() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .eagerEncoding(true)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+
+    ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+
+    final ZMTPMessage first = ZMTPMessage.fromUTF8(ALLOC, "abc");
+    enc.write(ctx, first, voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "def"), promise);
+
+    // Messages are encoded and released immediately but not written until flushed
+    assertThat(first.refCnt(), is(0));
+    verify(ctx, times(0)).write(any(ByteBuf.class), any(ChannelPromise.class));
+
+    enc.flush(ctx);
+    verify(ctx).write(any(ByteBuf.class), same(promise));
+    verify(ctx).flush();
+    assertThat(bufCaptor.getValue(), is(buf(0, 3, 0x61, 0x62, 0x63,
+                                            0, 3, 0x64, 0x65, 0x66)));
+    bufCaptor.getValue().release();
+  }
+
+  @Test
+  public void testEagerChunkedEncoding() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .eagerEncoding(true)
+        .maxChunkSize(10)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+
+    ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "abc"), voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "def"), voidPromise);
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "ghi"), voidPromise);
+
+    // The first chunk is written as soon as it is full
+    assertThat(bufCaptor.getAllValues(), hasSize(1));
+
+    enc.flush(ctx);
+    verify(ctx).flush();
+    assertThat(bufCaptor.getAllValues(), hasSize(2));
+    final ByteBuf first = bufCaptor.getAllValues().get(0);
+    final ByteBuf second = bufCaptor.getAllValues().get(1);
+    assertThat(first, is(buf(0, 3, 0x61, 0x62, 0x63,
+                             0, 3, 0x64, 0x65, 0x66)));
+    assertThat(second, is(buf(0, 3, 0x67, 0x68, 0x69)));
+    first.release();
+    second.release();
+  }
+
+  @Test
+  public void testAllocator() throws Exception {
+    final ByteBufAllocator alloc = mock(ByteBufAllocator.class);
+    when(alloc.buffer(any(Integer.class))).thenReturn(Unpooled.directBuffer());
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .allocator(alloc)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+
+    ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "abc"), promise);
+    enc.flush(ctx);
+
+    verify(alloc).buffer(5);
+    verify(ctx, times(0)).alloc();
+    assertThat(bufCaptor.getValue(), is(buf(0, 3, 0x61, 0x62, 0x63)));
+    bufCaptor.getValue().release();
+  }
+
+  @Test
+  public void testAutoFlushMessages() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .autoFlushMessages(2)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+
+    ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "a"), voidPromise);
+    verify(ctx, times(0)).flush();
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "b"), voidPromise);
+    verify(ctx).flush();
+
+    assertThat(bufCaptor.getValue(), is(buf(0, 1, 0x61, 0, 1, 0x62)));
+    bufCaptor.getValue().release();
+  }
+
+  @Test
+  public void testAutoFlushBytes() throws Exception {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .autoFlushBytes(8)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+
+    ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "abc"), voidPromise);
+    verify(ctx, times(0)).flush();
+    enc.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "def"), voidPromise);
+    verify(ctx).flush();
+
+    assertThat(bufCaptor.getValue(), is(buf(0, 3, 0x61, 0x62, 0x63,
+                                            0, 3, 0x64, 0x65, 0x66)));
+    bufCaptor.getValue().release();
+  }
+
+  @Test
+  public void testEncodedMessage() throws Exception {
+    final ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "id0", "", "f0");
+    final ZMTPEncodedMessage encoded = ZMTPEncodedMessage.from(ALLOC, message, ZMTPVersion.ZMTP20);
+    message.release();
+    final ByteBuf content = encoded.content(ZMTPVersion.ZMTP20);
+
+    final ZMTPFramingEncoder enc1 = zmtp20Encoder(new ZMTPMessageEncoder());
+    final ZMTPFramingEncoder enc2 = zmtp20Encoder(new ZMTPMessageEncoder());
+
+    enc1.write(ctx, encoded.retain(), promise);
+    enc1.write(ctx, ZMTPMessage.fromUTF8(ALLOC, "f1"), voidPromise);
+    enc1.flush(ctx);
+    enc2.write(ctx, encoded, promise);
+    enc2.flush(ctx);
+
+    // The encoded content is written by reference
+    assertThat(encoded.refCnt(), is(0));
+    assertThat(content.refCnt(), is(2));
+
+    final ByteBuf out1 = bufCaptor.getAllValues().get(0);
+    final ByteBuf out2 = bufCaptor.getAllValues().get(1);
+    assertThat(out1, is(buf(1, 3, 0x69, 0x64, 0x30,
+                            1, 0,
+                            0, 2, 0x66, 0x30,
+                            0, 2, 0x66, 0x31)));
+    assertThat(out2, is(buf(1, 3, 0x69, 0x64, 0x30,
+                            1, 0,
+                            0, 2, 0x66, 0x30)));
+    out1.release();
+    out2.release();
+    assertThat(content.refCnt(), is(0));
+  }
+
+  @Test
+  public void testWriteEncodedMessageMissingVersion() throws Exception {
+    final ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "f0");
+    final ZMTPEncodedMessage encoded = ZMTPEncodedMessage.from(ALLOC, message, ZMTPVersion.ZMTP10);
+    final ChannelPromise p1 = mock(ChannelPromise.class);
+    final ChannelPromise p2 = mock(ChannelPromise.class);
+    final ZMTPFramingEncoder enc = zmtp20Encoder(new ZMTPMessageEncoder());
+
+    enc.write(ctx, encoded, p1);
+    verify(p1).tryFailure(isA(IllegalArgumentException.class));
+    assertThat(encoded.refCnt(), is(0));
+
+    // Other messages are unaffected
+    enc.write(ctx, message, p2);
+    enc.flush(ctx);
+    verify(ctx).write(any(ByteBuf.class), same(p2));
+    assertThat(bufCaptor.getValue(), is(buf(0, 2, 0x66, 0x30)));
+    bufCaptor.getValue().release();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEncodedMessageMissingVersion() throws Exception {
+    final ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "f0");
+    final ZMTPEncodedMessage encoded = ZMTPEncodedMessage.from(ALLOC, message, ZMTPVersion.ZMTP10);
+    message.release();
+    try {
+      encoded.content(ZMTPVersion.ZMTP20);
+    } finally {
+      encoded.release();
+    }
+  }
+
+  private ZMTPFramingEncoder zmtp20Encoder(final ZMTPEncoder encoder) {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+    return new ZMTPFramingEncoder(session, encoder);
+  }
+
+  private ZMTPFramingEncoder highWaterMarkEncoder(final ZMTPHighWaterMarkPolicy policy) {
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .sendHighWaterMark(1)
+        .highWaterMarkPolicy(policy)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+    return new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+  }
 }
@@ -34,7 +34,12 @@ import io.netty.channel.ChannelHandlerContext;
 import static io.netty.util.CharsetUtil.UTF_8;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ZMTPMessageDecoderTest {
@@ -77,4 +82,56 @@ public class ZMTPMessageDecoderTest {
     assertThat(out, hasSize(1));
     assertThat(out, contains(expected));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testFrameCopyThreshold() throws Exception {
+    final ZMTPRetentionMetrics metrics = new ZMTPRetentionMetrics();
+    final ZMTPMessageDecoder decoder = new ZMTPMessageDecoder(6, ALLOC, metrics);
+
+    final ByteBuf in = Unpooled.buffer(1024).writeBytes("hello world!".getBytes(UTF_8));
+
+    final List<Object> out = Lists.newArrayList();
+    decoder.header(ctx, 5, true, out);
+    decoder.content(ctx, in, out);
+    decoder.header(ctx, 7, false, out);
+    decoder.content(ctx, in, out);
+    decoder.finish(ctx, out);
+    in.release();
+
+    final ZMTPMessage message = (ZMTPMessage) out.get(0);
+    assertThat(message, is(ZMTPMessage.fromUTF8(ALLOC, "hello", " world!")));
+
+    // The small frame is a copy that does not keep the read buffer alive
+    assertThat(message.frame(0).unwrap(), is(nullValue()));
+    assertThat(message.frame(0).capacity(), is(5));
+    assertThat(message.frame(1).unwrap(), is(notNullValue()));
+
+    assertThat(metrics.frames(), is(2L));
+    assertThat(metrics.frameBytes(), is(12L));
+    assertThat(metrics.copiedFrames(), is(1L));
+    assertThat(metrics.copiedBytes(), is(5L));
+    assertThat(metrics.retainedBytes(), is(5L + 1024L));
+    message.release();
+  }
+
+  @Test
+  public void testFlatMessageAllocator() throws Exception {
+    final ByteBufAllocator alloc = new UnpooledByteBufAllocator(true);
+    final ZMTPFlatMessageDecoder decoder = new ZMTPFlatMessageDecoder(alloc);
+
+    final ByteBuf content = Unpooled.copiedBuffer("hello", UTF_8);
+
+    // The configured allocator is used instead of the allocator of the channel
+    final List<Object> out = Lists.newArrayList();
+    decoder.header(ctx, content.readableBytes(), false, out);
+    decoder.content(ctx, content, out);
+    decoder.finish(ctx, out);
+    content.release();
+
+    assertThat(out, hasSize(1));
+    final ZMTPFlatMessage message = (ZMTPFlatMessage) out.get(0);
+    assertThat(message.frame(0).alloc(), is(alloc));
+    verify(ctx, never()).alloc();
+    message.release();
+  }
+}
@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -39,6 +40,7 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 @RunWith(Parameterized.class)
 public class ZMTPMessageTest {
@@ -107,6 +109,93 @@ public class ZMTPMessageTest {
     assertEquals(ZMTPMessage.fromUTF8(ALLOC, "aa", "", "bb"), message("aa", "", "bb"));
   }
 
+  @Test
+  public void testRecycle() {
+    final ZMTPMessage large = ZMTPMessage.fromUTF8(ALLOC, "aa", "bb", "cc");
+    large.release();
+
+    // A recycled message must not expose frames of its previous use
+    final ZMTPMessage small = ZMTPMessage.fromUTF8(ALLOC, "dd");
+    assertThat(small.size(), is(1));
+    assertEquals(ZMTPMessage.fromUTF8(ALLOC, "dd"), small);
+    assertEquals(ZMTPMessage.fromUTF8(ALLOC, "dd").hashCode(), small.hashCode());
+    assertThat(Lists.newArrayList(small), is(frames(asList("dd"))));
+    try {
+      small.frame(1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+    small.release();
+  }
+
+  @Test
+  public void testPushPop() {
+    final ByteBuf data = Unpooled.copiedBuffer("data", UTF_8);
+    final ByteBuf id0 = Unpooled.copiedBuffer("id0", UTF_8);
+    final ByteBuf id1 = Unpooled.copiedBuffer("id1", UTF_8);
+    final ByteBuf id2 = Unpooled.copiedBuffer("id2", UTF_8);
+    final ZMTPMessage message = ZMTPMessage.from(asList(data));
+
+    // Pushing in front of the message and popping share the frames
+    final ZMTPMessage pushed = message.push(id0);
+    final ZMTPMessage pushedTwice = pushed.push(id1);
+    final ZMTPMessage popped = pushedTwice.pop();
+    assertEquals(ZMTPMessage.fromUTF8(ALLOC, "id0", "data"), pushed);
+    assertEquals(ZMTPMessage.fromUTF8(ALLOC, "id1", "id0", "data"), pushedTwice);
+    assertEquals(pushed, popped);
+    assertThat(data.refCnt(), is(1));
+
+    // Pushing a different frame in front of the same message copies the frames
+    final ZMTPMessage copied = message.push(id2);
+    assertEquals(ZMTPMessage.fromUTF8(ALLOC, "id2", "data"), copied);
+    assertEquals(ZMTPMessage.fromUTF8(ALLOC, "id0", "data"), pushed);
+    assertThat(data.refCnt(), is(2));
+
+    for (final ZMTPMessage m : asList(message, pushed, pushedTwice, popped)) {
+      assertThat(data.refCnt(), is(2));
+      m.release();
+    }
+    assertThat(data.refCnt(), is(1));
+    assertThat(id0.refCnt(), is(0));
+    assertThat(id1.refCnt(), is(0));
+    copied.release();
+    assertThat(data.refCnt(), is(0));
+    assertThat(id2.refCnt(), is(0));
+  }
+
+  @Test
+  public void testBuilder() {
+    final ByteBuffer bytes = ByteBuffer.wrap("bytes".getBytes(UTF_8));
+    final ZMTPMessage.Builder builder = ZMTPMessage.builder(ALLOC);
+    final ZMTPMessage message = builder
+        .addAscii("id0")
+        .add(new byte[0])
+        .addUTF8("\u00e5\u00e4\u00f6")
+        .add(bytes)
+        .add(4711L)
+        .build();
+
+    assertThat(bytes.remaining(), is(5));
+    assertThat(message.size(), is(5));
+    assertThat(message.frame(0).toString(UTF_8), is("id0"));
+    assertThat(message.frame(1).readableBytes(), is(0));
+    assertThat(message.frame(2).toString(UTF_8), is("\u00e5\u00e4\u00f6"));
+    assertThat(message.frame(3).toString(UTF_8), is("bytes"));
+    assertThat(message.frame(4).readLong(), is(4711L));
+
+    // All frames share a single buffer
+    final ByteBuf buf = message.frame(0).unwrap();
+    assertThat(message.frame(2).unwrap(), is(buf));
+    assertThat(buf.refCnt(), is(4));
+    message.release();
+    assertThat(buf.refCnt(), is(0));
+
+    // The builder can be reused
+    final ZMTPMessage empty = builder.build();
+    assertThat(empty.size(), is(0));
+    empty.release();
+  }
+
   private ZMTPMessage message(final String... frames) {
     return ZMTPMessage.from(frames(asList(frames)));
   }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPRetentionMetricsTest {
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final ZMTPRetentionMetrics metrics = new ZMTPRetentionMetrics();
+    final int threads = 8;
+    final int frames = 10000;
+
+    final List<Thread> recorders = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      recorders.add(new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < frames; j++) {
+            metrics.record(10, 100, j % 2 == 0);
+          }
+        }
+      });
+    }
+    for (final Thread recorder : recorders) {
+      recorder.start();
+    }
+    for (final Thread recorder : recorders) {
+      recorder.join();
+    }
+
+    final long total = threads * frames;
+    assertThat(metrics.frames(), is(total));
+    assertThat(metrics.frameBytes(), is(total * 10));
+    assertThat(metrics.retainedBytes(), is(total * 100));
+    assertThat(metrics.copiedFrames(), is(total / 2));
+    assertThat(metrics.copiedBytes(), is(total / 2 * 10));
+    assertThat(metrics.retentionRatio(), is(10.0));
+  }
+}
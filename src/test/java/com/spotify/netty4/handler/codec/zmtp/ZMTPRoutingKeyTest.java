@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPConfig.ANONYMOUS;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
+import static io.netty.util.CharsetUtil.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPRoutingKeyTest {
+
+  private static final ZMTPConfig CONFIG = ZMTPConfig.builder()
+      .socketType(ZMTPSocketType.ROUTER)
+      .build();
+
+  private static final int[] LENGTHS = {0, 1, 5, 7, 8, 9, 15, 16, 17, 24, 33};
+
+  @Test
+  public void testEquality() {
+    for (final int length : LENGTHS) {
+      final byte[] bytes = bytes(length);
+
+      final ByteBuf buf = Unpooled.buffer();
+      buf.writeZero(3).writeBytes(bytes).writeZero(2);
+      buf.readerIndex(3);
+      buf.writerIndex(3 + length);
+      final ByteBuffer buffer = ByteBuffer.allocate(length + 4);
+      buffer.position(4);
+      buffer.mark();
+      buffer.put(bytes);
+      buffer.reset();
+
+      final ZMTPRoutingKey key = ZMTPRoutingKey.of(bytes);
+      assertThat(ZMTPRoutingKey.of(buf), is(key));
+      assertThat(ZMTPRoutingKey.of(buf).hashCode(), is(key.hashCode()));
+      assertThat(ZMTPRoutingKey.of(buffer), is(key));
+      assertThat(ZMTPRoutingKey.of(buffer).hashCode(), is(key.hashCode()));
+      assertThat(buf.readerIndex(), is(3));
+      assertThat(buffer.position(), is(4));
+
+      assertThat(key.length(), is(length));
+      assertArrayEquals(bytes, key.toByteArray());
+
+      for (int i = 0; i < length; i++) {
+        final byte[] other = bytes.clone();
+        other[i] ^= 1;
+        assertThat(ZMTPRoutingKey.of(other), is(not(key)));
+      }
+    }
+  }
+
+  @Test
+  public void testTrailingZerosAreSignificant() {
+    assertThat(ZMTPRoutingKey.of(new byte[]{1, 0}), is(not(ZMTPRoutingKey.of(new byte[]{1}))));
+    assertThat(ZMTPRoutingKey.of(new byte[9]), is(not(ZMTPRoutingKey.of(new byte[8]))));
+    assertThat(ZMTPRoutingKey.of(new byte[17]), is(not(ZMTPRoutingKey.of(new byte[16]))));
+  }
+
+  @Test
+  public void testPeerRoutingKey() {
+    final ZMTPSession session = new ZMTPSession(CONFIG);
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTP20, ByteBuffer.wrap(bytes(5))));
+    assertThat(session.peerRoutingKey(), is(ZMTPRoutingKey.of(bytes(5))));
+
+    final ZMTPSession anonymous = new ZMTPSession(CONFIG);
+    anonymous.handshakeSuccess(ZMTPHandshake.of(ZMTP20, ANONYMOUS));
+    assertThat(anonymous.peerRoutingKey(), is(ZMTPRoutingKey.of(anonymous.peerIdentity())));
+  }
+
+  @Test
+  public void testMessageRoutingKey() {
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("identity", "", "payload");
+    assertThat(message.routingKey(0), is(ZMTPRoutingKey.of("identity".getBytes())));
+
+    // Keys are cached with the frames, and shared by messages viewing the same frames
+    assertThat(message.routingKey(0), is(sameInstance(message.routingKey(0))));
+    final ZMTPMessage popped = message.pop();
+    assertThat(popped.routingKey(1), is(sameInstance(message.routingKey(2))));
+    popped.release();
+    message.release();
+  }
+
+  @Test
+  public void testRecycledMessageRoutingKey() {
+    // A recycled frame array with cached keys may be reused for a larger message
+    final ZMTPMessage keyed = ZMTPMessage.fromUTF8("a");
+    keyed.routingKey(0);
+    keyed.release();
+
+    final List<ByteBuf> frames = new ArrayList<ByteBuf>();
+    for (int i = 0; i < 4; i++) {
+      frames.add(Unpooled.copiedBuffer("frame" + i, UTF_8));
+    }
+    ZMTPMessage.from(frames).release();
+    for (final ByteBuf frame : frames) {
+      assertThat(frame.refCnt(), is(0));
+    }
+  }
+
+  private static byte[] bytes(final int length) {
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (i * 37 + 1);
+    }
+    return bytes;
+  }
+}
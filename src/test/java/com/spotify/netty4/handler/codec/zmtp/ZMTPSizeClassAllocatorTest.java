@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPSizeClassAllocatorTest {
+
+  private final ZMTPSizeClassAllocator alloc =
+      new ZMTPSizeClassAllocator(UnpooledByteBufAllocator.DEFAULT, 1024);
+
+  @Test
+  public void testSmallBuffersOnHeap() {
+    final ByteBuf buf = alloc.buffer(1023);
+    assertThat(buf.isDirect(), is(false));
+    buf.release();
+  }
+
+  @Test
+  public void testLargeBuffersDirect() {
+    final ByteBuf buf = alloc.buffer(1024, 4096);
+    assertThat(buf.isDirect(), is(true));
+    assertThat(buf.maxCapacity(), is(4096));
+    buf.release();
+  }
+
+  @Test
+  public void testExplicitBuffers() {
+    final ByteBuf direct = alloc.directBuffer(1);
+    final ByteBuf heap = alloc.heapBuffer(4096);
+    assertThat(direct.isDirect(), is(true));
+    assertThat(heap.isDirect(), is(false));
+    direct.release();
+    heap.release();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeThreshold() {
+    new ZMTPSizeClassAllocator(UnpooledByteBufAllocator.DEFAULT, -1);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
 import org.junit.Test;
@@ -25,16 +26,20 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP10;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
 import static io.netty.buffer.Unpooled.copiedBuffer;
 import static io.netty.util.CharsetUtil.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
@@ -116,6 +121,124 @@ public class ZMTPWriterTest {
   }
 
 
+  @Test
+  public void testAppend() throws Exception {
+    final ZMTPWriter writer = ZMTPWriter.create(ZMTP10);
+    final ByteBuf buf = Unpooled.buffer();
+    writer.reset(buf);
+
+    final ByteBuf f0 = copiedBuffer("hello ", UTF_8);
+    final ByteBuf f1 = copiedBuffer("world", UTF_8);
+    final ByteBuf f2 = copiedBuffer("!", UTF_8);
+
+    writer.frame(f0.readableBytes(), true).writeBytes(f0.duplicate());
+    writer.frame(f1.readableBytes(), true);
+    writer.append(f1.duplicate().retain());
+    writer.frame(f2.readableBytes(), false).writeBytes(f2.duplicate());
+
+    final ByteBuf output = writer.finish();
+    assertThat(output, is(instanceOf(CompositeByteBuf.class)));
+
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(wireFormat(ZMTP10), new RawDecoder());
+    decoder.decode(null, output, out);
+
+    assertThat(out, hasSize(1));
+    assertThat(out, contains((Object) asList(f0, f1, f2)));
+
+    output.release();
+    assertThat(f1.refCnt(), is(1));
+  }
+
+  @Test
+  public void testAppendWithInlineContent() throws Exception {
+    final ZMTPWriter writer = ZMTPWriter.create(ZMTP20);
+    final ByteBuf buf = Unpooled.buffer();
+    writer.reset(buf);
+
+    final ByteBuf blob = copiedBuffer("blob", UTF_8);
+
+    // A frame made up of an inline field followed by content appended by reference
+    writer.frame(8 + blob.readableBytes(), false).writeLong(17);
+    writer.append(blob.nioBuffer());
+
+    final ByteBuf output = writer.finish();
+
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(wireFormat(ZMTP20), new RawDecoder());
+    decoder.decode(null, output, out);
+
+    final ByteBuf expected = Unpooled.buffer().writeLong(17).writeBytes(blob.duplicate());
+    assertThat(out, hasSize(1));
+    assertThat(out, contains((Object) singletonList(expected)));
+
+    output.release();
+  }
+
+  @Test
+  public void testReframeGrowZMTP10() throws Exception {
+    testReframeGrow(ZMTP10);
+  }
+
+  @Test
+  public void testReframeGrowZMTP20() throws Exception {
+    testReframeGrow(ZMTP20);
+  }
+
+  private void testReframeGrow(final ZMTPVersion version) throws Exception {
+    final ZMTPFramingDecoder decoder =
+        new ZMTPFramingDecoder(wireFormat(version), new RawDecoder());
+    final ZMTPWriter writer = ZMTPWriter.create(version);
+    final ByteBuf buf = Unpooled.buffer();
+    writer.reset(buf);
+
+    final ByteBuf small = copiedBuffer("hello", UTF_8);
+    final ByteBuf large = copiedBuffer(Strings.repeat("hello world", 100), UTF_8);
+
+    // Underestimate the first frame, but not enough to need a wider header
+    writer.frame(1, true).writeBytes(small.duplicate());
+    writer.reframe(small.readableBytes(), true);
+
+    // Underestimate the second frame so that the header must be widened
+    writer.frame(10, false).writeBytes(large.duplicate());
+    writer.reframe(large.readableBytes(), false);
+
+    decoder.decode(null, buf, out);
+    assertThat(out, hasSize(1));
+    assertThat(out, contains((Object) asList(small, large)));
+  }
+
+  @Test
+  public void testEndFrameZMTP10() throws Exception {
+    testEndFrame(ZMTP10);
+  }
+
+  @Test
+  public void testEndFrameZMTP20() throws Exception {
+    testEndFrame(ZMTP20);
+  }
+
+  private void testEndFrame(final ZMTPVersion version) throws Exception {
+    final ZMTPFramingDecoder decoder =
+        new ZMTPFramingDecoder(wireFormat(version), new RawDecoder());
+    final ZMTPWriter writer = ZMTPWriter.create(version);
+    final ByteBuf buf = Unpooled.buffer();
+    writer.reset(buf);
+
+    final String large = Strings.repeat("hello world", 100);
+
+    writer.frame(true).writeByte(17);
+    writer.endFrame();
+    writer.frame(true);
+    writer.endFrame();
+    ByteBufUtil.writeUtf8(writer.frame(false), large);
+    writer.endFrame();
+
+    decoder.decode(null, buf, out);
+    assertThat(out, hasSize(1));
+    assertThat(out, contains((Object) asList(Unpooled.buffer().writeByte(17),
+                                             Unpooled.EMPTY_BUFFER,
+                                             copiedBuffer(large, UTF_8))));
+  }
+
   private class RawDecoder implements ZMTPDecoder {
 
     private long length;
@@ -65,6 +65,8 @@ public class CustomReqRepBenchmark {
 
   private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 
+  private static final int ZERO_COPY_THRESHOLD = 4096;
+
   private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
   private static final Thread.UncaughtExceptionHandler
       UNCAUGHT_EXCEPTION_HANDLER =
@@ -360,7 +362,7 @@ public class CustomReqRepBenchmark {
       estimator.frame(request.uri().length());
       estimator.frame(request.method().length());
       estimator.frame(16);
-      estimator.frame(request.payload().remaining());
+      estimatePayload(estimator, request.payload());
     }
 
     @Override
@@ -386,7 +388,7 @@ public class CustomReqRepBenchmark {
       estimator.frame(reply.method().length());
       estimator.frame(16);
       estimator.frame(4);
-      estimator.frame(reply.payload().remaining());
+      estimatePayload(estimator, reply.payload());
     }
 
     @Override
@@ -421,9 +423,20 @@ public class CustomReqRepBenchmark {
         .writeLong(id.timestamp());
   }
 
+  private static void estimatePayload(final ZMTPEstimator estimator, final ByteBuffer payload) {
+    if (payload.remaining() >= ZERO_COPY_THRESHOLD) {
+      estimator.header(payload.remaining());
+    } else {
+      estimator.frame(payload.remaining());
+    }
+  }
+
   private static void writePayload(final ZMTPWriter writer, final ByteBuffer payload) {
     final ByteBuf buf = writer.frame(payload.remaining(), false);
-    if (payload.hasArray()) {
+    if (payload.remaining() >= ZERO_COPY_THRESHOLD) {
+      // Large payloads are appended by reference instead of being copied
+      writer.append(payload);
+    } else if (payload.hasArray()) {
       buf.writeBytes(payload.array(), payload.arrayOffset() + payload.position(),
                      payload.remaining());
     } else {